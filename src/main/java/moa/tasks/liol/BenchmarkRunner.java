@@ -0,0 +1,164 @@
+package moa.tasks.liol;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>Measures the end-to-end throughput of MainRunner on a synthetic stream</h1>
+ *
+ * Generates a corpus and seed lexicon with {@link SyntheticTweetGenerator} (reused if the work
+ * directory already holds one of the same size), then runs the whole pipeline on it a number of
+ * times. Every run appends one JSON object per line to the results file with the configuration,
+ * the lines, tokens and emitted instances per second, the peak heap and the time spent in garbage
+ * collection, so builds can be compared over time.
+ *
+ * Usage: BenchmarkRunner [WorkDir][Lines][VocabSize][ContextSize][WindowSize][SketchingMethod]
+ * [WeightingMethod][Iterations][ResultsFile] and optionally a label for the build.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class BenchmarkRunner {
+
+  private static final long SEED = 42;
+  private static final int CORPUS_VOCABULARY = 100000;
+
+  public static void main(String[] args) {
+    if (args.length != 9 && args.length != 10) {
+      System.err.println("Usage: [WorkDir][Lines][VocabSize][ContextSize][WindowSize]" +
+          "[SketchingMethod][WeightingMethod][Iterations][ResultsFile][Label]");
+      System.exit(1);
+    }
+    try {
+      File dir = new File(args[0]);
+      File tweets = prepareCorpus(dir, Integer.parseInt(args[1]));
+      String label = (args.length == 10) ? args[9] : "";
+      int iterations = Integer.parseInt(args[7]);
+      for (int i = 0; i < iterations; i++) {
+        String result = runOnce(dir, tweets, Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+            Integer.parseInt(args[4]), Integer.parseInt(args[5]), Integer.parseInt(args[6]), label, i);
+        try (Writer out = new FileWriter(args[8], true)) {
+          out.write(result + "\n");
+        }
+        System.err.println(result);
+      }
+    } catch (IOException | NumberFormatException ex) {
+      ex.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Generates the corpus unless the work directory already has one with the requested lines.
+   * @return The tweets file
+   */
+  private static File prepareCorpus(File dir, int lines) throws IOException {
+    File tweets = new File(dir, "tweets-" + lines + ".txt");
+    File train = new File(dir, "lexicon-train.txt");
+    File test = new File(dir, "lexicon-test.txt");
+    if (!tweets.exists() || !train.exists() || !test.exists()) {
+      dir.mkdirs();
+      SyntheticTweetGenerator generator = new SyntheticTweetGenerator(SEED)
+          .setVocabSize(CORPUS_VOCABULARY);
+      generator.writeTweets(tweets, lines);
+      generator.writeLexicons(train, test);
+    }
+    return tweets;
+  }
+
+  /**
+   * Runs the pipeline once and measures it.
+   * @return The measurements as a JSON object
+   */
+  private static String runOnce(File dir, File tweets, int vocabSize, int contextSize,
+                                int windowSize, int sketch, int weight, String label,
+                                int iteration) {
+    System.gc();
+    List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+    long gcTimeBefore = 0;
+    long gcCountBefore = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcTimeBefore += Math.max(0, gc.getCollectionTime());
+      gcCountBefore += Math.max(0, gc.getCollectionCount());
+    }
+
+    ArrayList<Integer> params = new ArrayList<>();
+    params.add(vocabSize);
+    params.add(contextSize);
+    params.add(windowSize);
+    MainRunner runner = new MainRunner();
+    long start = System.nanoTime();
+    WordContextMatrix wcm = runner.run(InputObject.small(new File(dir, "lexicon-train.txt").getPath()),
+        InputObject.small(new File(dir, "lexicon-test.txt").getPath()),
+        new InputObject(tweets.getPath()), params, sketch, weight, null, null, 1000);
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long heapPeak = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      heapPeak += pool.getPeakUsage().getUsed();
+    }
+    long gcTime = -gcTimeBefore;
+    long gcCount = -gcCountBefore;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcTime += Math.max(0, gc.getCollectionTime());
+      gcCount += Math.max(0, gc.getCollectionCount());
+    }
+
+    StringBuilder sb = new StringBuilder("{");
+    sb.append("\"label\":").append(quote(label));
+    sb.append(",\"timestamp\":").append(System.currentTimeMillis());
+    sb.append(",\"java\":").append(quote(System.getProperty("java.version")));
+    sb.append(",\"processors\":").append(Runtime.getRuntime().availableProcessors());
+    sb.append(",\"maxHeap\":").append(Runtime.getRuntime().maxMemory());
+    sb.append(",\"iteration\":").append(iteration);
+    sb.append(",\"config\":{\"corpus\":").append(quote(tweets.getName()))
+        .append(",\"seed\":").append(SEED)
+        .append(",\"vocabSize\":").append(vocabSize)
+        .append(",\"contextSize\":").append(contextSize)
+        .append(",\"windowSize\":").append(windowSize)
+        .append(",\"sketching\":").append(sketch)
+        .append(",\"weighting\":").append(weight).append('}');
+    sb.append(",\"seconds\":").append(seconds);
+    sb.append(",\"lines\":").append(wcm.getProcessedInstances());
+    long tokens = wcm.getTokensSeen() + wcm.getTokensSubsampled();
+    sb.append(",\"tokens\":").append(tokens);
+    sb.append(",\"tokensSubsampled\":").append(wcm.getTokensSubsampled());
+    sb.append(",\"emitted\":").append(wcm.getEmittedInstances());
+    sb.append(",\"linesPerSec\":").append(wcm.getProcessedInstances() / seconds);
+    sb.append(",\"tokensPerSec\":").append(tokens / seconds);
+    sb.append(",\"emittedPerSec\":").append(wcm.getEmittedInstances() / seconds);
+    sb.append(",\"heapPeakBytes\":").append(heapPeak);
+    sb.append(",\"gcTimeMs\":").append(gcTime);
+    sb.append(",\"gcCount\":").append(gcCount);
+    return sb.append('}').toString();
+  }
+
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
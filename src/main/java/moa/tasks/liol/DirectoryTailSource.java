@@ -0,0 +1,199 @@
+package moa.tasks.liol;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>Reads a directory of rotating files, oldest first</h1>
+ *
+ * Every file is read to its end before moving on to the next older-than-the-rest file, gzipped
+ * files being decompressed on the fly. When following, the newest file is tailed like
+ * "tail -f": a line is only handed out once its newline has been written, and new files are picked
+ * up as they appear. Rotation is expected to create new file names (e.g. timestamped files), a
+ * file name that has been fully read is never read again.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class DirectoryTailSource extends ReadAheadSource {
+
+  private static final long POLL_MILLIS = 500;
+
+  private final File directory;
+  private final boolean follow;
+  private final Set<String> done = ConcurrentHashMap.newKeySet(); // Also read by linesWaiting()
+  private volatile long doneBytes;
+
+  private volatile File currentFile;
+  private volatile FileInputStream currentIn;
+  private BufferedReader current;
+  private final char[] buffer = new char[1 << 16];
+  private int bufferPos;
+  private int bufferLen;
+  private final StringBuilder partial = new StringBuilder();
+
+  public DirectoryTailSource(File directory, boolean follow, int batchSize, int readAhead) {
+    super(batchSize, readAhead);
+    this.directory = directory;
+    this.follow = follow;
+  }
+
+  @Override
+  protected BufferedReader open() {
+    return null; // Files are opened one after the other by readLine()
+  }
+
+  @Override
+  protected String describe() {
+    return directory.getPath();
+  }
+
+  @Override
+  protected boolean moreAvailable() throws IOException {
+    return current != null && (bufferPos < bufferLen || current.ready());
+  }
+
+  @Override
+  protected String readLine() throws IOException {
+    try {
+      while (true) {
+        if (current == null) {
+          File next = nextFile();
+          if (next == null) {
+            if (!follow) {
+              return null;
+            }
+            Thread.sleep(POLL_MILLIS);
+            continue;
+          }
+          currentFile = next;
+          currentIn = new FileInputStream(next);
+          current = openFile(currentIn);
+        }
+
+        String line = readCompleteLine();
+        if (line != null) {
+          return line;
+        }
+
+        // At the end of the current file, it is finished once a newer file shows up
+        File next = nextFile();
+        if (next != null || !follow) {
+          String rest = finishCurrent();
+          if (rest != null) {
+            return rest;
+          }
+        } else {
+          Thread.sleep(POLL_MILLIS);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Closes the current file and returns its last line if it didn't end with a newline.
+   */
+  private String finishCurrent() throws IOException {
+    done.add(currentFile.getName());
+    doneBytes += currentFile.length();
+    current.close();
+    current = null;
+    currentIn = null;
+    bufferPos = bufferLen = 0;
+    if (partial.length() > 0) {
+      String rest = partial.toString();
+      partial.setLength(0);
+      return rest;
+    }
+    return null;
+  }
+
+  /**
+   * @return The next line terminated by a newline, or null if the file has no complete line left
+   */
+  private String readCompleteLine() throws IOException {
+    while (true) {
+      for (int i = bufferPos; i < bufferLen; i++) {
+        if (buffer[i] == '\n') {
+          int end = (i > bufferPos && buffer[i - 1] == '\r') ? i - 1 : i;
+          partial.append(buffer, bufferPos, end - bufferPos);
+          bufferPos = i + 1;
+          String line = partial.toString();
+          partial.setLength(0);
+          return line;
+        }
+      }
+      partial.append(buffer, bufferPos, bufferLen - bufferPos);
+      bufferPos = bufferLen = 0;
+      int n = current.read(buffer);
+      if (n <= 0) {
+        return null;
+      }
+      bufferLen = n;
+    }
+  }
+
+  @Override
+  protected long inputBytesRead() {
+    long position = position(currentIn);
+    return doneBytes + Math.max(0, position);
+  }
+
+  /**
+   * The current file's unread part and the files not read yet. Called on the consumer's thread,
+   * so a file finished in the meantime may be counted twice, which is harmless for an estimate.
+   */
+  @Override
+  protected long inputBytesUnread() {
+    File file = currentFile;
+    long position = position(currentIn);
+    long unread = (file != null && position >= 0) ? Math.max(0, file.length() - position) : 0;
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.isFile() && !f.isHidden() && !done.contains(f.getName()) && !f.equals(file)) {
+          unread += f.length();
+        }
+      }
+    }
+    return unread;
+  }
+
+  /**
+   * @return The oldest file that hasn't been read yet, other than the current one
+   */
+  private File nextFile() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return null;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+    for (File f : files) {
+      if (f.isFile() && !f.isHidden() && !done.contains(f.getName()) && !f.equals(currentFile)) {
+        return f;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    try {
+      if (current != null) {
+        current.close();
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,284 @@
+package moa.tasks.liol;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Recognises lines seen recently, before they are tokenized</h1>
+ *
+ * Retweets and copy-pasted spam otherwise go through the whole tokenize, window and learn path
+ * again and inflate the counts of their words. Every line is normalised (lower case, the
+ * "rt @user:" prefix and links removed, whitespace collapsed) and fingerprinted:
+ * <ul>
+ *   <li>exactly, by a 64 bit hash of the normalised text</li>
+ *   <li>optionally also approximately, by a MinHash signature of its character 5-grams cut into
+ *       BANDS bands of ROWS hashes each. Two lines share a band with a probability of
+ *       1 - (1 - J^ROWS)^BANDS for a Jaccard similarity J of their 5-grams: over 0.95 at
+ *       J = 0.8, about 0.38 at J = 0.6 and under 0.001 at J = 0.2. A line is compared with
+ *       every line of the window at once, so the bands are kept long to keep chance matches
+ *       with some unrelated line rare. Lines shorter than MIN_NEAR_LENGTH only get the exact
+ *       check</li>
+ * </ul>
+ * The fingerprints go into Bloom filters that rotate every period of time, or as soon as the
+ * current one holds capacity lines: the oldest one is cleared and filled from then on, while all
+ * of them are queried. A line is thus compared with the lines of the last one to two periods,
+ * and at most the last capacity to twice capacity lines, in bounded memory. Without a period
+ * they rotate by lines only, which keeps a backfill reproducible. The price is a small rate of
+ * lines dropped by false positives: a line probes up to 1 + BANDS fingerprints in GENERATIONS
+ * filters, so each filter is sized for a false positive rate of LINE_FPP divided by the number of
+ * probes, which bounds the false drops at about LINE_FPP per line.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class DuplicateFilter {
+
+  static final int SHINGLE = 5;
+  static final int MIN_NEAR_LENGTH = 4 * SHINGLE; // Shorter lines share too much by chance
+  static final int BANDS = 10;
+  static final int ROWS = 6;
+  static final int GENERATIONS = 2;
+  static final double LINE_FPP = 1e-4;
+
+  private final int capacity;
+  private final long periodNanos;
+  private final boolean nearDuplicates;
+  private final long[] seeds;
+  private final BloomFilter[] filters;
+  private int current;
+  private int linesInCurrent;
+  private long rotatedAt;
+
+  private long linesChecked;
+  private long exactDuplicates;
+  private long nearDuplicateLines;
+
+  private final StringBuilder normalised = new StringBuilder();
+  private final long[] minHashes;
+  private final long[] fingerprints;
+
+  /**
+   * @param capacity The number of lines each filter takes at most before the filters rotate
+   * @param periodMillis The time after which the filters rotate, 0 to rotate by lines only
+   * @param nearDuplicates Whether to drop near duplicates too, not only exact ones
+   */
+  public DuplicateFilter(int capacity, long periodMillis, boolean nearDuplicates) {
+    this.capacity = capacity;
+    this.periodNanos = periodMillis * 1000000L;
+    this.nearDuplicates = nearDuplicates;
+    this.minHashes = new long[BANDS * ROWS];
+    this.fingerprints = new long[1 + (nearDuplicates ? BANDS : 0)];
+    this.seeds = new long[BANDS * ROWS];
+    for (int i = 0; i < seeds.length; i++) {
+      seeds[i] = mix(0x9E3779B97F4A7C15L * (i + 1));
+    }
+    this.filters = new BloomFilter[GENERATIONS];
+    for (int g = 0; g < GENERATIONS; g++) {
+      filters[g] = new BloomFilter((long) capacity * fingerprints.length,
+          LINE_FPP / (fingerprints.length * GENERATIONS));
+    }
+    this.rotatedAt = System.nanoTime();
+  }
+
+  public long getLinesChecked() { return linesChecked; }
+  public long getExactDuplicates() { return exactDuplicates; }
+  public long getNearDuplicates() { return nearDuplicateLines; }
+
+  /**
+   * @return The bytes held by the Bloom filters
+   */
+  public long sizeInBytes() {
+    long bytes = 0;
+    for (BloomFilter f : filters) {
+      bytes += MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 8L * f.bits.length);
+    }
+    return bytes;
+  }
+
+  /**
+   * Checks a line against the recent ones and remembers it.
+   * @param line The raw line
+   * @return Whether the line duplicates, or nearly duplicates, a recent one
+   */
+  public boolean isDuplicate(String line) {
+    linesChecked++;
+    normalise(line);
+    int n = 0;
+    fingerprints[n++] = hash(normalised, 0, normalised.length());
+    if (nearDuplicates && normalised.length() >= MIN_NEAR_LENGTH) {
+      minHash();
+      for (int b = 0; b < BANDS; b++) {
+        long h = b;
+        for (int r = 0; r < ROWS; r++) {
+          h = mix(h * 31 + minHashes[b * ROWS + r]);
+        }
+        fingerprints[n++] = h;
+      }
+    }
+
+    // A period without any line ages out every filter, not just the oldest
+    int rotations = (linesInCurrent == capacity) ? 1 : 0;
+    if (periodNanos > 0) {
+      long now = System.nanoTime();
+      long periods = (now - rotatedAt) / periodNanos;
+      if (periods > 0) {
+        rotations = (int) Math.min(GENERATIONS, periods);
+        rotatedAt = now;
+      }
+    }
+    for (int r = 0; r < rotations; r++) {
+      current = (current + 1) % GENERATIONS;
+      filters[current].clear();
+      linesInCurrent = 0;
+    }
+
+    boolean exact = seen(fingerprints[0]);
+    boolean near = false;
+    for (int i = 1; i < n && !exact && !near; i++) {
+      near = seen(fingerprints[i]);
+    }
+
+    for (int i = 0; i < n; i++) {
+      filters[current].put(fingerprints[i]);
+    }
+    linesInCurrent++;
+
+    if (exact) {
+      exactDuplicates++;
+    } else if (near) {
+      nearDuplicateLines++;
+    }
+    return exact || near;
+  }
+
+  private boolean seen(long fingerprint) {
+    for (BloomFilter f : filters) {
+      if (f.mightContain(fingerprint)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Lower cases the line into normalised, dropping a leading retweet marker, links and
+   * repeated whitespace.
+   */
+  private void normalise(String line) {
+    normalised.setLength(0);
+    int len = line.length();
+    int i = skipSpace(line, 0);
+    // "RT @user: " or "RT @user "
+    if (i + 2 < len && Character.toLowerCase(line.charAt(i)) == 'r'
+        && Character.toLowerCase(line.charAt(i + 1)) == 't' && Character.isWhitespace(line.charAt(i + 2))) {
+      int j = skipSpace(line, i + 2);
+      if (j < len && line.charAt(j) == '@') {
+        while (j < len && !Character.isWhitespace(line.charAt(j))) {
+          j++;
+        }
+        i = skipSpace(line, j);
+      }
+    }
+    while (i < len) {
+      int end = i;
+      while (end < len && !Character.isWhitespace(line.charAt(end))) {
+        end++;
+      }
+      if (!line.regionMatches(true, i, "http://", 0, 7) && !line.regionMatches(true, i, "https://", 0, 8)) {
+        if (normalised.length() > 0) {
+          normalised.append(' ');
+        }
+        for (int k = i; k < end; k++) {
+          normalised.append(Character.toLowerCase(line.charAt(k)));
+        }
+      }
+      i = skipSpace(line, end);
+    }
+  }
+
+  private static int skipSpace(String s, int i) {
+    while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Fills minHashes with the minimum of every hash function over the character shingles.
+   */
+  private void minHash() {
+    Arrays.fill(minHashes, Long.MAX_VALUE);
+    int shingles = Math.max(1, normalised.length() - SHINGLE + 1);
+    for (int s = 0; s < shingles; s++) {
+      long h = hash(normalised, s, Math.min(normalised.length(), s + SHINGLE));
+      for (int i = 0; i < minHashes.length; i++) {
+        long v = mix(h ^ seeds[i]);
+        if (v < minHashes[i]) {
+          minHashes[i] = v;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return A 64 bit FNV-1a hash of the characters, mixed
+   */
+  private static long hash(CharSequence s, int from, int to) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = from; i < to; i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return mix(h);
+  }
+
+  /**
+   * The finaliser of SplitMix64.
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * A Bloom filter over 64 bit fingerprints, probed by double hashing.
+   */
+  private static class BloomFilter {
+    private final long[] bits;
+    private final long numBits;
+    private final int probes;
+
+    BloomFilter(long expected, double fpp) {
+      double bitsPerKey = -Math.log(fpp) / (Math.log(2) * Math.log(2));
+      long m = Math.max(64, (long) Math.ceil(expected * bitsPerKey));
+      this.bits = new long[Math.toIntExact((m + 63) / 64)];
+      this.numBits = 64L * bits.length;
+      this.probes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+    }
+
+    void put(long fingerprint) {
+      long h1 = fingerprint;
+      long h2 = mix(fingerprint) | 1;
+      for (int i = 0; i < probes; i++) {
+        long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+        bits[(int) (bit >>> 6)] |= 1L << bit;
+      }
+    }
+
+    boolean mightContain(long fingerprint) {
+      long h1 = fingerprint;
+      long h2 = mix(fingerprint) | 1;
+      for (int i = 0; i < probes; i++) {
+        long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+        if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void clear() {
+      Arrays.fill(bits, 0L);
+    }
+  }
+}
@@ -0,0 +1,342 @@
+package moa.tasks.liol;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import moa.core.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>Checks an optimized configuration of the pipeline against the reference mode</h1>
+ *
+ * Runs {@link ReferenceMatrix} with the trainer's reference projection, then
+ * {@link WordContextMatrix} with the configuration under test, on the same input with the same
+ * projection seed. Every emitted instance of the second run is compared with the instance the
+ * reference emitted at the same position: the word, then every value within the tolerance. So is
+ * every prediction made for a seed word and, at the end, every metric of the trainer. The first
+ * differences are printed, followed by a summary; main() exits with 1 if there was any.
+ *
+ * The reference follows the original matrix and projection, with two knobs that depart from it
+ * on purpose:
+ * <ul>
+ *   <li>seed=S draws the projection from a fixed seed, where the original drew a new one every
+ *       run, so that two runs can be compared at all</li>
+ *   <li>projection=H projects to H features, where the original took 10% of the attributes; the
+ *       dense reference projection costs H times the attributes per instance</li>
+ * </ul>
+ * The window engine of the matrix counts each pair in both rows and emits at other times than
+ * the original, see {@link ReferenceMatrix}, so against the original every configuration
+ * differs. With ring the reference follows the window engine instead, and the optimizations on
+ * top of it can be checked: the default configuration has to agree exactly, the single
+ * precision projection within about 1e-5.
+ *
+ * A value a and its reference b agree if |a - b| is at most tolerance * max(1, |a|, |b|), so the
+ * tolerance is relative for large values and absolute for small ones. Approximate counts, row
+ * limits and subsampling change the instances on purpose, for them the summary measures the
+ * drift rather than proving equivalence.
+ *
+ * Usage: EquivalenceChecker [SeedLexiconTrain][SeedLexiconTest][InputFile][VocabSize][ContextSize]
+ * [WindowSize][SketchingMethod][WeightingMethod] followed by any of: seed=S projection=H ring
+ * tolerance=T float learner=N counts rowLimit=K hotRows=N subsample=T report=N
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class EquivalenceChecker {
+
+  private final String lexiconTrain;
+  private final String lexiconTest;
+  private final String input;
+  private final int vocabSize;
+  private final int contextSize;
+  private final int windowSize;
+  private final int sketch;
+  private final int weight;
+
+  private long seed = 1;
+  private int projectionSize; // 0 for the original 10% of the attributes
+  private double tolerance = 1e-9;
+  private int report = 10;
+  private boolean singlePrecision;
+  private int learnerQueue;
+  private boolean approximateCounts;
+  private int rowLimit;
+  private int hotRows;
+  private double subsample;
+  private boolean ringSemantics;
+
+  // What the reference emitted and predicted, in order
+  private final List<String> words = new ArrayList<>();
+  private final List<int[]> indices = new ArrayList<>();
+  private final List<double[]> values = new ArrayList<>();
+  private final List<double[]> votes = new ArrayList<>();
+
+  private long instancesCompared;
+  private long wordMismatches;
+  private long vectorMismatches;
+  private double maxValueDiff;
+  private long predictionsCompared;
+  private long predictionMismatches;
+  private long argmaxFlips;
+  private double maxVoteDiff;
+  private long metricMismatches;
+  private long reported;
+
+  public EquivalenceChecker(String lexiconTrain, String lexiconTest, String input, int vocabSize,
+                            int contextSize, int windowSize, int sketch, int weight) {
+    this.lexiconTrain = lexiconTrain;
+    this.lexiconTest = lexiconTest;
+    this.input = input;
+    this.vocabSize = vocabSize;
+    this.contextSize = contextSize;
+    this.windowSize = windowSize;
+    this.sketch = sketch;
+    this.weight = weight;
+  }
+
+  /**
+   * Applies an option of the configuration under test, or of the comparison.
+   * @param option name=value, or a bare name for a flag
+   */
+  public void setOption(String option) {
+    int eq = option.indexOf('=');
+    String name = (eq < 0) ? option : option.substring(0, eq);
+    String value = (eq < 0) ? "" : option.substring(eq + 1);
+    switch (name) {
+      case "seed": seed = Long.parseLong(value); break;
+      case "projection": projectionSize = Integer.parseInt(value); break;
+      case "tolerance": tolerance = Double.parseDouble(value); break;
+      case "report": report = Integer.parseInt(value); break;
+      case "float": singlePrecision = true; break;
+      case "learner": learnerQueue = Integer.parseInt(value); break;
+      case "counts": approximateCounts = true; break;
+      case "rowLimit": rowLimit = Integer.parseInt(value); break;
+      case "hotRows": hotRows = Integer.parseInt(value); break;
+      case "subsample": subsample = Double.parseDouble(value); break;
+      case "ring": ringSemantics = true; break;
+      default: throw new IllegalArgumentException("Unknown option " + option);
+    }
+  }
+
+  /**
+   * Runs the reference and the configuration under test and compares them.
+   * @return Whether they agreed within the tolerance
+   */
+  public boolean run() {
+    Recorder reference = new Recorder(true);
+    reference.setReferenceMode(true);
+    ReferenceMatrix rm = new ReferenceMatrix(vocabSize, contextSize, windowSize, open(input), reference);
+    rm.setSketchingMethod(sketch);
+    rm.setWeightingMethod(weight);
+    rm.setRingSemantics(ringSemantics);
+    long start = System.nanoTime();
+    rm.buildMatrix();
+    long referenceMillis = (System.nanoTime() - start) / 1000000;
+
+    Recorder variant = new Recorder(false);
+    variant.setSinglePrecision(singlePrecision);
+    WordContextMatrix wcm = new WordContextMatrix(vocabSize, contextSize, windowSize, open(input), variant);
+    wcm.setSketchingMethod(sketch);
+    wcm.setWeightingMethod(weight);
+    wcm.setRowLimit(rowLimit);
+    if (approximateCounts) {
+      wcm.setApproximateCounts(seed);
+    }
+    wcm.setSubsampling(subsample, seed);
+    wcm.setLearnerQueue(learnerQueue);
+    if (hotRows > 0) {
+      try {
+        wcm.enableRowSpill(hotRows, null);
+      } catch (java.io.IOException ex) {
+        throw new RuntimeException("Cannot create the row spill", ex);
+      }
+    }
+    start = System.nanoTime();
+    wcm.buildMatrix();
+    long variantMillis = (System.nanoTime() - start) / 1000000;
+
+    if (instancesCompared != words.size()) {
+      difference("the reference emitted " + words.size() + " instances, the variant " + instancesCompared);
+    }
+    Map<String, Double> expected = reference.metrics();
+    Map<String, Double> actual = variant.metrics();
+    for (Map.Entry<String, Double> e : expected.entrySet()) {
+      Double a = actual.get(e.getKey());
+      if (a == null || !(agree(a, e.getValue()) || (a.isNaN() && e.getValue().isNaN()))) {
+        metricMismatches++;
+        difference("metric " + e.getKey() + ": reference " + e.getValue() + ", variant " + a);
+      }
+    }
+
+    boolean equivalent = reported == 0;
+    System.err.println((equivalent ? "EQUIVALENT" : "DIFFERENT") + " within " + tolerance
+        + ": instances " + instancesCompared + "/" + words.size() + ", " + wordMismatches + " word and "
+        + vectorMismatches + " vector mismatches (max diff " + maxValueDiff + "), predictions "
+        + predictionsCompared + "/" + votes.size() + " with " + predictionMismatches + " mismatches, "
+        + argmaxFlips + " flipped (max diff " + maxVoteDiff + "), " + metricMismatches
+        + " metric mismatches; reference " + referenceMillis + " ms, variant " + variantMillis + " ms");
+    return equivalent;
+  }
+
+  private static InputSource open(String spec) {
+    return InputSource.open(spec, InputSource.DEFAULT_BATCH_SIZE, InputSource.DEFAULT_READ_AHEAD, false);
+  }
+
+  private boolean agree(double a, double b) {
+    double diff = Math.abs(a - b);
+    return diff <= tolerance * Math.max(1.0, Math.max(Math.abs(a), Math.abs(b)));
+  }
+
+  private void difference(String what) {
+    if (reported++ < report) {
+      System.err.println("Difference: " + what);
+    }
+  }
+
+  /**
+   * Compares a vector of the variant with the reference's at the same position, merging the
+   * sorted index lists so that a value missing on one side counts as 0.
+   */
+  private void compareInstance(long position, String word, int[] idx, double[] val) {
+    int p = (int) position;
+    if (!word.equals(words.get(p))) {
+      wordMismatches++;
+      difference("instance " + position + " is " + word + ", the reference's " + words.get(p));
+      return;
+    }
+    int[] refIdx = indices.get(p);
+    double[] refVal = values.get(p);
+    boolean mismatch = false;
+    int i = 0;
+    int j = 0;
+    while (i < idx.length || j < refIdx.length) {
+      double a;
+      double b;
+      int at;
+      if (j == refIdx.length || (i < idx.length && idx[i] < refIdx[j])) {
+        at = idx[i];
+        a = val[i++];
+        b = 0;
+      } else if (i == idx.length || refIdx[j] < idx[i]) {
+        at = refIdx[j];
+        a = 0;
+        b = refVal[j++];
+      } else {
+        at = idx[i];
+        a = val[i++];
+        b = refVal[j++];
+      }
+      maxValueDiff = Math.max(maxValueDiff, Math.abs(a - b));
+      if (!agree(a, b) && !mismatch) {
+        mismatch = true;
+        difference("instance " + position + " (" + word + ") attribute " + at + ": reference " + b
+            + ", variant " + a);
+      }
+    }
+    if (mismatch) {
+      vectorMismatches++;
+    }
+  }
+
+  private void comparePrediction(long position, String word, double[] v) {
+    if (position >= votes.size()) {
+      return; // Counted as an instance count mismatch already
+    }
+    double[] expected = votes.get((int) position);
+    boolean mismatch = false;
+    for (int k = 0; k < Math.max(v.length, expected.length); k++) {
+      double a = (k < v.length) ? v[k] : 0;
+      double b = (k < expected.length) ? expected[k] : 0;
+      maxVoteDiff = Math.max(maxVoteDiff, Math.abs(a - b));
+      mismatch |= !agree(a, b);
+    }
+    if (Utils.maxIndex(v) != Utils.maxIndex(expected)) {
+      argmaxFlips++;
+    }
+    if (mismatch) {
+      predictionMismatches++;
+      difference("prediction " + position + " (" + word + "): reference " + java.util.Arrays.toString(expected)
+          + ", variant " + java.util.Arrays.toString(v));
+    }
+  }
+
+  /**
+   * A trainer that either records what it is given and predicts, for the reference run, or
+   * compares it with the recording as it goes, for the run under test. Both are called from
+   * whichever thread learns, one at a time.
+   */
+  private class Recorder extends Trainer {
+    private final boolean recording;
+    private long instance;
+    private long prediction;
+
+    Recorder(boolean recording) {
+      super(0, null, null);
+      this.recording = recording;
+      initialize(InputObject.small(lexiconTrain), InputObject.small(lexiconTest));
+      setProjectionSize(projectionSize);
+      setSeed(seed);
+    }
+
+    @Override
+    public synchronized void learn(String word, Instance inst) {
+      int d = inst.numAttributes() - 1;
+      int n = 0;
+      for (int i = 0; i < inst.numValues(); i++) {
+        if (inst.index(i) < d) {
+          n++;
+        }
+      }
+      int[] idx = new int[n];
+      double[] val = new double[n];
+      n = 0;
+      for (int i = 0; i < inst.numValues(); i++) {
+        if (inst.index(i) < d) {
+          idx[n] = inst.index(i);
+          val[n] = inst.valueSparse(i);
+          n++;
+        }
+      }
+      if (recording) {
+        words.add(word);
+        indices.add(idx);
+        values.add(val);
+      } else if (instance < words.size()) {
+        compareInstance(instance, word, idx, val);
+      }
+      instance++;
+      if (!recording) {
+        instancesCompared = instance;
+      }
+      super.learn(word, inst);
+    }
+
+    @Override
+    protected void predicted(String word, Instance projected, double[] v) {
+      if (recording) {
+        votes.add(v.clone());
+      } else {
+        comparePrediction(prediction, word, v);
+        predictionsCompared = prediction + 1;
+      }
+      prediction++;
+    }
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 8) {
+      System.err.println("Usage: [SeedLexiconTrain][SeedLexiconTest][InputFile][VocabSize][ContextSize]"
+          + "[WindowSize][SketchingMethod][WeightingMethod] followed by any of seed=S projection=H ring"
+          + " tolerance=T float learner=N counts rowLimit=K hotRows=N subsample=T report=N");
+      System.exit(1);
+    }
+    EquivalenceChecker checker = new EquivalenceChecker(args[0], args[1], args[2], Integer.parseInt(args[3]),
+        Integer.parseInt(args[4]), Integer.parseInt(args[5]), Integer.parseInt(args[6]),
+        Integer.parseInt(args[7]));
+    for (int i = 8; i < args.length; i++) {
+      checker.setOption(args[i]);
+    }
+    System.exit(checker.run() ? 0 : 1);
+  }
+}
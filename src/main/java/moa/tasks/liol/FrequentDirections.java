@@ -0,0 +1,444 @@
+package moa.tasks.liol;
+
+import java.util.Arrays;
+
+/**
+ * <h1>A Frequent Directions sketch of the emitted word rows</h1>
+ *
+ * Keeps an l x d matrix B such that B'B approximates the covariance A'A of every row inserted so
+ * far (Liberty, "Simple and Deterministic Matrix Sketching", KDD 2013). When B is full its SVD is
+ * taken, every squared singular value is reduced by the median one and the lower half of the rows
+ * becomes free again. The top right singular vectors of B are the directions the rows vary most
+ * along, which makes them a data adaptive basis to project onto, so far fewer dimensions are
+ * needed than with a random projection.
+ *
+ * The SVD is computed from the small l x l Gram matrix BB' with a symmetric eigen solver, so the
+ * cost of a shrink is O(l^2 d + l^3) and never touches a d x d matrix. The decomposition is kept
+ * until the next insert, so a basis taken from a full sketch costs nothing more when it shrinks.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class FrequentDirections {
+
+  private final int l;
+  private final int d;
+  private final double[][] B;
+  private final double[][] G; // BB', kept up to date so a decomposition needs no pass over B
+  private int filled;
+  private long rowsSeen;
+  // Eigen decomposition of BB' over the filled rows, null once B changed
+  private double[][] U;
+  private double[] sigma2;
+
+  /**
+   * @param l The number of sketch rows, at least twice the number of directions wanted
+   * @param d The dimension of the rows
+   */
+  public FrequentDirections(int l, int d) {
+    if (l < 2) {
+      throw new IllegalArgumentException("A sketch needs at least 2 rows");
+    }
+    this.l = l;
+    this.d = d;
+    this.B = new double[l][d];
+    this.G = new double[l][l];
+  }
+
+  public long getRowsSeen() { return rowsSeen; }
+
+  /**
+   * @return Whether every sketch row is in use, so the next insert shrinks the sketch
+   */
+  public boolean isFull() { return filled == l; }
+
+  /**
+   * @return An estimate of the bytes held by the sketch
+   */
+  public long sizeInBytes() {
+    return 2 * MemoryBudget.align(MemoryBudget.ARRAY_HEADER + (long) MemoryBudget.REF * l)
+        + l * MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 8L * d)
+        + l * MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 8L * l);
+  }
+
+  /**
+   * Adds a sparse row to the sketch, in O(l * nnz) unless it is full and shrinks first.
+   * @param idx The distinct indices of the non-zero values
+   * @param val The non-zero values
+   * @param nnz The number of non-zero values
+   */
+  public void insert(int[] idx, double[] val, int nnz) {
+    if (filled == l) {
+      shrink();
+    }
+    int r = filled++;
+    double[] row = B[r];
+    double norm2 = 0;
+    for (int i = 0; i < nnz; i++) {
+      row[idx[i]] = val[i];
+      norm2 += val[i] * val[i];
+    }
+    for (int b = 0; b < r; b++) {
+      double[] other = B[b];
+      double dot = 0;
+      for (int i = 0; i < nnz; i++) {
+        dot += val[i] * other[idx[i]];
+      }
+      G[r][b] = G[b][r] = dot;
+    }
+    G[r][r] = norm2;
+    rowsSeen++;
+    U = null;
+  }
+
+  /**
+   * Computes the top right singular vectors of the sketch as a projection basis.
+   * @param h The number of directions, at most the number of sketch rows
+   * @return The basis, or null if the sketch doesn't hold h non-zero directions yet
+   */
+  public Basis basis(int h) {
+    double[][] V = new double[h][];
+    decompose();
+    for (int k = 0; k < h; k++) {
+      if (k >= filled || sigma2[k] <= 1e-12) {
+        return null;
+      }
+      V[k] = combine(U[k], 1.0 / Math.sqrt(sigma2[k]));
+    }
+    return new Basis(V);
+  }
+
+  /**
+   * Frees the lower half of the sketch by shrinking every direction by the median squared
+   * singular value.
+   */
+  private void shrink() {
+    decompose();
+    double delta = sigma2[filled / 2];
+
+    double[][] shrunk = new double[filled][];
+    int kept = 0;
+    for (int k = 0; k < filled; k++) {
+      double s2 = sigma2[k] - delta;
+      if (s2 > 1e-12) {
+        // sqrt(sigma^2 - delta) times the unit right singular vector u'B / sigma
+        shrunk[kept++] = combine(U[k], Math.sqrt(s2 / sigma2[k]));
+      }
+    }
+    for (int k = 0; k < l; k++) {
+      if (k < kept) {
+        System.arraycopy(shrunk[k], 0, B[k], 0, d);
+      } else {
+        Arrays.fill(B[k], 0);
+      }
+      // The shrunk rows are orthogonal, with the shrunk squared singular values as norms
+      Arrays.fill(G[k], 0);
+      if (k < kept) {
+        G[k][k] = sigma2[k] - delta;
+      }
+    }
+    filled = kept;
+  }
+
+  private void decompose() {
+    if (U == null) {
+      sigma2 = new double[filled];
+      U = eigen(gram(), sigma2);
+    }
+  }
+
+  /**
+   * @return A copy of BB' over the filled rows
+   */
+  private double[][] gram() {
+    double[][] copy = new double[filled][];
+    for (int a = 0; a < filled; a++) {
+      copy[a] = Arrays.copyOf(G[a], filled);
+    }
+    return copy;
+  }
+
+  /**
+   * @return scale * u'B over the filled rows
+   */
+  private double[] combine(double[] u, double scale) {
+    double[] out = new double[d];
+    for (int r = 0; r < filled; r++) {
+      double c = u[r] * scale;
+      if (c != 0) {
+        double[] row = B[r];
+        for (int j = 0; j < d; j++) {
+          out[j] += c * row[j];
+        }
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Eigen decomposition of a symmetric matrix by Householder reduction to tridiagonal form and
+   * the implicit QL method, as in JAMA's EigenvalueDecomposition (tred2 and tql2). About 4n^3
+   * operations on rows that stay in cache, where cyclic Jacobi sweeps take several times that.
+   * @param A The matrix, destroyed in the process
+   * @param values Receives the eigenvalues in decreasing order
+   * @return The eigenvectors, one per row, in the order of the values
+   */
+  static double[][] eigen(double[][] A, double[] values) {
+    int n = A.length;
+    double[][] V = A; // Becomes the eigenvectors, one per column
+    double[] d = new double[n];
+    double[] e = new double[n];
+    tridiagonalize(V, d, e);
+    diagonalize(V, d, e);
+
+    // Sort by decreasing eigenvalue
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (x, y) -> Double.compare(d[y], d[x]));
+    double[][] vectors = new double[n][n];
+    for (int i = 0; i < n; i++) {
+      values[i] = Math.max(0, d[order[i]]);
+      for (int k = 0; k < n; k++) {
+        vectors[i][k] = V[k][order[i]];
+      }
+    }
+    return vectors;
+  }
+
+  /**
+   * Householder reduction of the symmetric V to tridiagonal form, accumulating the transformations
+   * in V.
+   * @param d Receives the diagonal
+   * @param e Receives the subdiagonal in e[1..n-1]
+   */
+  private static void tridiagonalize(double[][] V, double[] d, double[] e) {
+    int n = V.length;
+    System.arraycopy(V[n - 1], 0, d, 0, n);
+    for (int i = n - 1; i > 0; i--) {
+      double scale = 0;
+      double h = 0;
+      for (int k = 0; k < i; k++) {
+        scale += Math.abs(d[k]);
+      }
+      if (scale == 0) {
+        e[i] = d[i - 1];
+        for (int j = 0; j < i; j++) {
+          d[j] = V[i - 1][j];
+          V[i][j] = 0;
+          V[j][i] = 0;
+        }
+      } else {
+        for (int k = 0; k < i; k++) {
+          d[k] /= scale;
+          h += d[k] * d[k];
+        }
+        double f = d[i - 1];
+        double g = Math.sqrt(h);
+        if (f > 0) {
+          g = -g;
+        }
+        e[i] = scale * g;
+        h -= f * g;
+        d[i - 1] = f - g;
+        Arrays.fill(e, 0, i, 0);
+        for (int j = 0; j < i; j++) {
+          f = d[j];
+          V[j][i] = f;
+          g = e[j] + V[j][j] * f;
+          for (int k = j + 1; k < i; k++) {
+            g += V[k][j] * d[k];
+            e[k] += V[k][j] * f;
+          }
+          e[j] = g;
+        }
+        f = 0;
+        for (int j = 0; j < i; j++) {
+          e[j] /= h;
+          f += e[j] * d[j];
+        }
+        double hh = f / (h + h);
+        for (int j = 0; j < i; j++) {
+          e[j] -= hh * d[j];
+        }
+        for (int j = 0; j < i; j++) {
+          f = d[j];
+          g = e[j];
+          for (int k = j; k < i; k++) {
+            V[k][j] -= f * e[k] + g * d[k];
+          }
+          d[j] = V[i - 1][j];
+          V[i][j] = 0;
+        }
+      }
+      d[i] = h;
+    }
+
+    // Accumulate the transformations
+    for (int i = 0; i < n - 1; i++) {
+      V[n - 1][i] = V[i][i];
+      V[i][i] = 1;
+      double h = d[i + 1];
+      if (h != 0) {
+        for (int k = 0; k <= i; k++) {
+          d[k] = V[k][i + 1] / h;
+        }
+        for (int j = 0; j <= i; j++) {
+          double g = 0;
+          for (int k = 0; k <= i; k++) {
+            g += V[k][i + 1] * V[k][j];
+          }
+          for (int k = 0; k <= i; k++) {
+            V[k][j] -= g * d[k];
+          }
+        }
+      }
+      for (int k = 0; k <= i; k++) {
+        V[k][i + 1] = 0;
+      }
+    }
+    for (int j = 0; j < n; j++) {
+      d[j] = V[n - 1][j];
+      V[n - 1][j] = 0;
+    }
+    V[n - 1][n - 1] = 1;
+    e[0] = 0;
+  }
+
+  /**
+   * Implicit QL iterations on the tridiagonal matrix, rotating the columns of V along.
+   * @param d The diagonal, receives the eigenvalues
+   * @param e The subdiagonal in e[1..n-1], destroyed
+   */
+  private static void diagonalize(double[][] V, double[] d, double[] e) {
+    int n = V.length;
+    System.arraycopy(e, 1, e, 0, n - 1);
+    e[n - 1] = 0;
+    double f = 0;
+    double tst1 = 0;
+    double eps = Math.ulp(1.0);
+    for (int l = 0; l < n; l++) {
+      // Find a small subdiagonal element
+      tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+      int m = l;
+      while (m < n - 1 && Math.abs(e[m]) > eps * tst1) {
+        m++;
+      }
+      // If m == l, d[l] is an eigenvalue already, otherwise iterate
+      if (m > l) {
+        do {
+          double g = d[l];
+          double p = (d[l + 1] - g) / (2 * e[l]);
+          double r = Math.sqrt(p * p + 1);
+          if (p < 0) {
+            r = -r;
+          }
+          d[l] = e[l] / (p + r);
+          d[l + 1] = e[l] * (p + r);
+          double dl1 = d[l + 1];
+          double h = g - d[l];
+          for (int i = l + 2; i < n; i++) {
+            d[i] -= h;
+          }
+          f += h;
+
+          p = d[m];
+          double c = 1;
+          double c2 = c;
+          double c3 = c;
+          double el1 = e[l + 1];
+          double s = 0;
+          double s2 = 0;
+          for (int i = m - 1; i >= l; i--) {
+            c3 = c2;
+            c2 = c;
+            s2 = s;
+            g = c * e[i];
+            h = c * p;
+            r = Math.sqrt(p * p + e[i] * e[i]);
+            e[i + 1] = s * r;
+            s = e[i] / r;
+            c = p / r;
+            p = c * d[i] - s * g;
+            d[i + 1] = h + s * (c * g + s * d[i]);
+            for (int k = 0; k < n; k++) {
+              double[] row = V[k];
+              h = row[i + 1];
+              row[i + 1] = s * row[i] + c * h;
+              row[i] = c * row[i] - s * h;
+            }
+          }
+          p = -s * s2 * c3 * el1 * e[l] / dl1;
+          e[l] = s * p;
+          d[l] = c * p;
+        } while (Math.abs(e[l]) > eps * tst1);
+      }
+      d[l] += f;
+      e[l] = 0;
+    }
+  }
+
+  /**
+   * An orthonormal basis of H directions, projected onto linearly.
+   */
+  public static class Basis implements Projection {
+    private final double[][] V;
+
+    Basis(double[][] V) {
+      this.V = V;
+    }
+
+    /**
+     * @return The same basis rounded to single precision
+     */
+    public Projection toFloat() {
+      return FloatProjection.of(V);
+    }
+
+    /**
+     * The coordinates of this basis' directions in another basis, M = V V_from^T. For a vector in
+     * the span of both, M takes its coordinates in the other basis to those in this one.
+     * @param from The other basis, of the same dimension
+     * @return M, one row per direction of this basis
+     */
+    double[][] transition(Basis from) {
+      double[][] M = new double[V.length][from.V.length];
+      for (int j = 0; j < V.length; j++) {
+        for (int k = 0; k < from.V.length; k++) {
+          double dot = 0.;
+          double[] v_j = V[j];
+          double[] u_k = from.V[k];
+          for (int i = 0; i < v_j.length; i++) {
+            dot += v_j[i] * u_k[i];
+          }
+          M[j][k] = dot;
+        }
+      }
+      return M;
+    }
+
+    @Override
+    public int size() {
+      return V.length;
+    }
+
+    @Override
+    public long sizeInBytes() {
+      return MemoryBudget.align(MemoryBudget.ARRAY_HEADER + (long) MemoryBudget.REF * V.length)
+          + V.length * MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 8L * V[0].length);
+    }
+
+    @Override
+    public void project(int[] idx, double[] val, int nnz, double[] out) {
+      for (int k = 0; k < V.length; k++) {
+        double a_k = 0.;
+        double[] v_k = V[k];
+        for (int i = 0; i < nnz; i++) {
+          a_k += val[i] * v_k[idx[i]];
+        }
+        out[k] = a_k;
+      }
+    }
+  }
+}
@@ -1,31 +1,62 @@
 package moa.tasks.liol;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 
 /**
  * A special inner class of the MainRunner class.
  * It encapsulates the input object so that other inputs can be used in its place such as a stream
  * input object.
+ * Reads a single local file, gzipped or not, ahead of the consumer on its own thread.
  */
-public class InputObject {
-	BufferedReader reader;
+public class InputObject extends ReadAheadSource {
+	private final String fileName;
+	private volatile FileInputStream in; // Set on the reader thread
 	
 	public InputObject(String fileName) {
-		try {
-			reader = new BufferedReader(new FileReader(fileName));
-		} catch (IOException ex) {
-			ex.printStackTrace();
-		}
+		this(fileName, DEFAULT_BATCH_SIZE, DEFAULT_READ_AHEAD);
 	}
 	
-	public String getNextInstance() {
-		try {
-			return reader.readLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return "mainrunner-error";
+	/**
+	 * @param fileName The file
+	 * @param batchSize The maximum number of lines per batch
+	 * @param readAhead The number of batches read ahead on a thread of its own, 0 to read on the
+	 *                  caller's thread
+	 */
+	public InputObject(String fileName, int batchSize, int readAhead) {
+		super(batchSize, readAhead);
+		this.fileName = fileName;
+	}
+	
+	/**
+	 * @param fileName A file small enough to read on the caller's thread, like a seed lexicon
+	 * @return The source, reading without a thread of its own
+	 */
+	public static InputObject small(String fileName) {
+		return new InputObject(fileName, DEFAULT_BATCH_SIZE, 0);
+	}
+	
+	@Override
+	protected BufferedReader open() throws IOException {
+		in = new FileInputStream(new File(fileName));
+		return openFile(in);
+	}
+	
+	@Override
+	protected long inputBytesRead() {
+		return position(in);
+	}
+	
+	@Override
+	protected long inputBytesUnread() {
+		long read = position(in);
+		return (read < 0) ? -1 : new File(fileName).length() - read;
+	}
+	
+	@Override
+	protected String describe() {
+		return fileName;
 	}
 }
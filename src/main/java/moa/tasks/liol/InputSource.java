@@ -0,0 +1,78 @@
+package moa.tasks.liol;
+
+import java.io.Closeable;
+import java.io.File;
+
+/**
+ * <h1>A stream of lines the matrix is built from</h1>
+ *
+ * Lines can be pulled one at a time or a batch at a time. Implementations read ahead on their own
+ * thread into a bounded buffer, so a slow consumer pushes back on the producer instead of letting
+ * the buffer grow.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public interface InputSource extends Closeable {
+
+  int DEFAULT_BATCH_SIZE = 256;
+  int DEFAULT_READ_AHEAD = 64;
+
+  /**
+   * @return The next line, or null at the end of the stream
+   */
+  String getNextInstance();
+
+  /**
+   * Blocks until at least one line is available and returns every line available without
+   * blocking further, up to the batch size.
+   * @return The next lines, or null at the end of the stream
+   */
+  String[] nextBatch();
+
+  /**
+   * Called every now and then to estimate how far the consumer is behind the input.
+   * @return The number of lines read ahead and not handed out yet plus, for inputs that know
+   * their size, an estimate of the lines not read yet; 0 if the source cannot tell
+   */
+  default long linesWaiting() {
+    return 0;
+  }
+
+  @Override
+  void close();
+
+  /**
+   * Opens the source described by a specification:
+   * <ul>
+   *   <li>"-" reads standard input</li>
+   *   <li>"tcp://host:port" connects to a socket relay</li>
+   *   <li>a directory reads its files oldest first, optionally tailing it for new ones</li>
+   *   <li>anything else is a file, gzipped or not</li>
+   * </ul>
+   * @param spec The specification
+   * @param batchSize The maximum number of lines per batch
+   * @param readAhead The number of batches buffered ahead of the consumer
+   * @param follow Whether a directory is tailed for new data instead of ending when exhausted
+   * @return The source, reading starts with the first request for a line
+   */
+  static InputSource open(String spec, int batchSize, int readAhead, boolean follow) {
+    if (spec.equals("-")) {
+      return new StdinSource(batchSize, readAhead);
+    }
+    if (spec.startsWith("tcp://")) {
+      String hostPort = spec.substring("tcp://".length());
+      int colon = hostPort.lastIndexOf(':');
+      if (colon < 0) {
+        throw new IllegalArgumentException("Expected tcp://host:port but got " + spec);
+      }
+      return new SocketSource(hostPort.substring(0, colon),
+          Integer.parseInt(hostPort.substring(colon + 1)), batchSize, readAhead);
+    }
+    File file = new File(spec);
+    if (file.isDirectory()) {
+      return new DirectoryTailSource(file, follow, batchSize, readAhead);
+    }
+    return new InputObject(spec, batchSize, readAhead);
+  }
+}
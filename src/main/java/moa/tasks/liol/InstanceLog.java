@@ -0,0 +1,273 @@
+package moa.tasks.liol;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * <h1>An append-only binary log of the instances the matrix emits</h1>
+ *
+ * Tuning the learner otherwise means rebuilding the matrix from the raw text every time. The
+ * log keeps every emitted (word, label, sparse vector) record in the order the trainer saw them,
+ * so it can be replayed straight into a trainer without tokenizing or counting anything. The
+ * layout:
+ * <ul>
+ *   <li>a header: magic, version, context size and hashing flag, enough to rebuild the
+ *       instances header</li>
+ *   <li>one record per emitted instance: a marker byte, the word, its label (the class value from
+ *       the seed lexicons, -1 outside of them), the number of non-zero attributes and then their
+ *       indices and values, the class left out</li>
+ * </ul>
+ * A log cut short by a crash is read up to its last complete record. A writer opened on an
+ * existing log checks its header, drops such a partial record and appends after the others, so
+ * a restarted run continues the log of the one before.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class InstanceLog {
+
+  private static final int MAGIC = 0x4c494f45; // "LIOE"
+  private static final int VERSION = 1;
+  private static final int RECORD = 1;
+  private static final int HEADER_BYTES = 13;
+
+  /**
+   * One emitted instance.
+   */
+  public static class Record {
+    final String word;
+    final int label;
+    final int[] indices;
+    final double[] values;
+
+    Record(String word, int label, int[] indices, double[] values) {
+      this.word = word;
+      this.label = label;
+      this.indices = indices;
+      this.values = values;
+    }
+
+    public String getWord() { return word; }
+    public int getLabel() { return label; }
+  }
+
+  /**
+   * Appends records to a log, creating it if needed.
+   */
+  public static class Writer implements Closeable {
+    private final DataOutputStream out;
+    private final int contextSize;
+    private long records;
+
+    /**
+     * @param file The log file, appended to if it exists
+     * @param contextSize The context size of the matrix
+     * @param isHashing Whether the matrix hashes its contexts
+     * @throws IOException If the log cannot be created, or exists and was written by a matrix
+     * of another context size or hashing mode
+     */
+    public Writer(File file, int contextSize, boolean isHashing) throws IOException {
+      this.contextSize = contextSize;
+      long complete = completeLength(file, contextSize, isHashing);
+      if (complete < file.length()) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+          raf.setLength(complete);
+        }
+      }
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+      if (complete == 0) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(contextSize);
+        out.writeBoolean(isHashing);
+      }
+    }
+
+    /**
+     * @return The length of the complete records of an existing log, header included, or 0 if
+     * there is no log or it was cut short within its header
+     */
+    private static long completeLength(File file, int contextSize, boolean isHashing) throws IOException {
+      if (file.length() < HEADER_BYTES) {
+        return 0;
+      }
+      try (Reader reader = new Reader(file)) {
+        if (reader.getContextSize() != contextSize || reader.isHashing() != isHashing) {
+          throw new IOException(file + " was written with context size " + reader.getContextSize()
+              + (reader.isHashing() ? " and hashing" : " without hashing") + ", cannot append to it");
+        }
+        long existing = 0;
+        while (reader.next() != null) {
+          existing++;
+        }
+        System.err.println("Appending to " + file + " after its " + existing + " records");
+        return reader.completeLength;
+      }
+    }
+
+    /**
+     * @param word The word of the instance
+     * @param label The class value of the word, -1 if it has none
+     * @param inst The emitted instance
+     * @throws IOException If the record cannot be written
+     */
+    public void append(String word, int label, Instance inst) throws IOException {
+      int n = inst.numValues();
+      int nnz = 0;
+      for (int i = 0; i < n; i++) {
+        if (inst.index(i) < contextSize) {
+          nnz++;
+        }
+      }
+      out.writeByte(RECORD);
+      out.writeUTF(word);
+      out.writeByte(label);
+      out.writeInt(nnz);
+      for (int i = 0; i < n; i++) {
+        if (inst.index(i) < contextSize) {
+          out.writeInt(inst.index(i));
+          out.writeDouble(inst.valueSparse(i));
+        }
+      }
+      records++;
+    }
+
+    public long getRecords() { return records; }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the records of a log in order.
+   */
+  public static class Reader implements Closeable {
+    private final DataInputStream in;
+    private final String name;
+    private final int contextSize;
+    private final boolean isHashing;
+    private long records;
+    private long completeLength = HEADER_BYTES;
+
+    public Reader(File file) throws IOException {
+      this.name = file.getPath();
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      if (in.readInt() != MAGIC) {
+        in.close();
+        throw new IOException(name + " is not an instance log");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        in.close();
+        throw new IOException(name + " has unsupported instance log version " + version);
+      }
+      this.contextSize = in.readInt();
+      this.isHashing = in.readBoolean();
+    }
+
+    public int getContextSize() { return contextSize; }
+    public boolean isHashing() { return isHashing; }
+
+    /**
+     * @return The next record, or null after the last complete one
+     * @throws IOException If the log cannot be read or is corrupt
+     */
+    public Record next() throws IOException {
+      int marker = in.read();
+      if (marker < 0) {
+        return null;
+      }
+      if (marker != RECORD) {
+        throw new IOException(name + " is corrupt after " + records + " records");
+      }
+      try {
+        String word = in.readUTF();
+        int label = in.readByte();
+        int nnz = in.readInt();
+        int[] indices = new int[nnz];
+        double[] values = new double[nnz];
+        for (int i = 0; i < nnz; i++) {
+          indices[i] = in.readInt();
+          values[i] = in.readDouble();
+        }
+        records++;
+        completeLength += 1 + 2 + utfLength(word) + 1 + 4 + 12L * nnz;
+        return new Record(word, label, indices, values);
+      } catch (EOFException ex) {
+        System.err.println(name + " is truncated, read up to its last complete record " + records);
+        return null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * @return The number of bytes writeUTF encodes a string in, without the length prefix
+   */
+  private static int utfLength(String s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      length += (c >= 0x0001 && c <= 0x007f) ? 1 : (c <= 0x07ff) ? 2 : 3;
+    }
+    return length;
+  }
+
+  /**
+   * Feeds a log into a trainer in its original order, as the matrix did when it was written.
+   * The words keep the labels they were logged with, the trainer's seed lexicons only decide
+   * which of them are test words, so a log can be replayed against other train and test splits.
+   * @param file The log
+   * @param trainer The trainer, its header is set from the log
+   * @return The number of instances replayed
+   * @throws IOException If the log cannot be read
+   */
+  public static long replay(File file, Trainer trainer) throws IOException {
+    long start = System.nanoTime();
+    long replayed = 0;
+    try (Reader reader = new Reader(file)) {
+      int contextSize = reader.getContextSize();
+      InstancesHeader header = WordContextMatrix.createInstanceHeader(contextSize, reader.isHashing());
+      trainer.setHeader(header);
+      System.out.println("Num Instances,Accuracy,TP,FP,TN,FN,F1,Precision,Recall,Kappa,Time");
+
+      Record record;
+      while ((record = reader.next()) != null) {
+        // The class goes last, as in the instances the matrix creates
+        int n = record.indices.length;
+        int[] indices = new int[n + 1];
+        double[] values = new double[n + 1];
+        System.arraycopy(record.indices, 0, indices, 0, n);
+        System.arraycopy(record.values, 0, values, 0, n);
+        indices[n] = contextSize;
+        values[n] = Double.NaN;
+        Instance inst = new SparseInstance(1, values, indices, contextSize + 1);
+        inst.setDataset(header);
+        trainer.learn(record.word, inst, record.label);
+        replayed++;
+      }
+    }
+    System.err.println("Replayed " + replayed + " instances from " + file + " in "
+        + (System.nanoTime() - start) / 1000000 + " ms");
+    return replayed;
+  }
+}
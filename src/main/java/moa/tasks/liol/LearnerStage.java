@@ -0,0 +1,172 @@
+package moa.tasks.liol;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h1>Runs the trainer on a thread of its own, fed by the matrix through a ring buffer</h1>
+ *
+ * Counting and learning overlap on two cores: the matrix thread publishes every emitted
+ * instance into a preallocated ring and goes back to counting, while the learner thread projects,
+ * predicts and trains in the same order the instances were emitted in, so the evaluation stays
+ * prequential. An emitted instance is a thin wrapper around its sparse arrays that the matrix
+ * never touches again, so the word and the instance are all that is handed over. With the same
+ * projection seed (Trainer.setSeed) a run learns exactly what it would have learnt inline; without
+ * one, every run draws a different projection whether or not it uses a learner thread.
+ *
+ * There is a single producer and a single consumer, so the ring needs no locks: each side owns
+ * one counter and publishes it with an ordered write. When the ring is full the matrix thread
+ * waits for the learner, which bounds both the memory held by the ring and how far the learner
+ * may lag behind. Either side spins briefly, then yields, then parks while it waits.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class LearnerStage implements Closeable {
+
+  private static final int SPINS = 100;
+  private static final int YIELDS = 100;
+  private static final long PARK_NANOS = 50000;
+
+  private final Trainer trainer;
+  private final String[] words;
+  private final Instance[] instances;
+  private final int mask;
+
+  private final AtomicLong head = new AtomicLong(); // Next slot to learn from, moved by the learner
+  private final AtomicLong tail = new AtomicLong(); // Next slot to fill, moved by the matrix
+  private long cachedHead; // The matrix thread's last view of head
+  private long stalls; // Instances the matrix thread had to wait for a free slot for
+
+  private final Thread thread;
+  private volatile boolean closed;
+  private volatile Throwable failure;
+
+  /**
+   * Starts the learner thread.
+   * @param trainer The trainer, only called from the learner thread from now on, except for its
+   *                thread safe methods
+   * @param capacity The number of instances the ring holds, rounded up to a power of two
+   */
+  public LearnerStage(Trainer trainer, int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.trainer = trainer;
+    this.words = new String[size];
+    this.instances = new Instance[size];
+    this.mask = size - 1;
+    this.thread = new Thread(this::consume, "learner");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Hands an emitted instance over to the learner, waiting for a free slot if the ring is full.
+   * Called from the matrix thread only.
+   * @param word The word of the instance
+   * @param inst The instance, not to be modified afterwards
+   */
+  public void publish(String word, Instance inst) {
+    long t = tail.get();
+    if (t - cachedHead > mask) {
+      cachedHead = head.get();
+      if (t - cachedHead > mask) {
+        stalls++;
+        int waits = 0;
+        while (t - (cachedHead = head.get()) > mask) {
+          checkFailure();
+          backOff(waits++);
+        }
+      }
+    }
+    int i = (int) t & mask;
+    words[i] = word;
+    instances[i] = inst;
+    tail.lazySet(t + 1);
+  }
+
+  /**
+   * @return The number of instances waiting for the learner
+   */
+  public long backlog() {
+    return tail.get() - head.get();
+  }
+
+  /**
+   * @return The number of times the matrix thread found the ring full, read from the matrix thread
+   */
+  public long getStalls() { return stalls; }
+
+  /**
+   * @return Whether close() was called, from the matrix thread: the learner is done once it returned
+   */
+  public boolean isClosed() { return closed; }
+
+  /**
+   * Waits until the learner has consumed every published instance and stops it.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      thread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    checkFailure();
+  }
+
+  private void consume() {
+    long h = head.get();
+    long cachedTail = h;
+    int waits = 0;
+    try {
+      while (true) {
+        if (h == cachedTail) {
+          // Read closed first, every instance published before close() is visible after it
+          boolean last = closed;
+          cachedTail = tail.get();
+          if (h == cachedTail) {
+            if (last) {
+              return;
+            }
+            // Idle, a publication asked for has no instance to wait for
+            trainer.publishIfRequested();
+            backOff(waits++);
+            continue;
+          }
+        }
+        waits = 0;
+        int i = (int) h & mask;
+        String word = words[i];
+        Instance inst = instances[i];
+        words[i] = null;
+        instances[i] = null;
+        head.lazySet(++h); // The slot is free again while the instance is being learnt
+        trainer.learn(word, inst);
+      }
+    } catch (Throwable ex) {
+      failure = ex;
+    }
+  }
+
+  private void checkFailure() {
+    Throwable ex = failure;
+    if (ex != null) {
+      throw new RuntimeException("The learner thread failed", ex);
+    }
+  }
+
+  private static void backOff(int waits) {
+    if (waits < SPINS) {
+      return;
+    }
+    if (waits < SPINS + YIELDS) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package moa.tasks.liol;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+import moa.core.Utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>Scores the whole vocabulary into an induced lexicon</h1>
+ *
+ * Works on a {@link MatrixSnapshot} and a {@link Trainer.Scorer}, so the scan never touches state the
+ * ingesting thread is modifying and ingestion carries on while it runs. The vocabulary is split
+ * into partitions that are scored in parallel on a fork-join pool, and each finished partition is
+ * streamed to the output as lines of "word TAB polarity TAB confidence", polarity being 1 or -1 as
+ * in the seed lexicon files. The output is written to a temporary file and moved into place once
+ * complete, so readers never see a half written lexicon.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class LexiconExporter {
+
+  private static final int PARTITION_SIZE = 1024;
+
+  private final File output;
+  private final Trainer trainer;
+  private final ForkJoinPool pool;
+  private final ExecutorService scanner;
+  private Future<?> running;
+
+  /**
+   * @param output The file the lexicon is written to
+   * @param trainer The trainer whose projection is used for scoring
+   * @param parallelism The number of scoring threads, 0 for one per core
+   */
+  public LexiconExporter(File output, Trainer trainer, int parallelism) {
+    this.output = output;
+    this.trainer = trainer;
+    this.pool = (parallelism > 0) ? new ForkJoinPool(parallelism) : new ForkJoinPool();
+    this.scanner = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "lexicon-export");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * @return true while a background export is still running
+   */
+  public boolean isBusy() {
+    return running != null && !running.isDone();
+  }
+
+  /**
+   * Starts exporting the snapshot in the background and returns immediately.
+   * @param snapshot The rows to score
+   * @param scorer A copy of the model and its projection
+   */
+  public void submit(final MatrixSnapshot snapshot, final Trainer.Scorer scorer) {
+    running = scanner.submit(() -> {
+      try {
+        export(snapshot, scorer);
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    });
+  }
+
+  /**
+   * Scores every word of the snapshot and writes the lexicon, blocking until done.
+   * @param snapshot The rows to score
+   * @param scorer A copy of the model and its projection
+   * @throws IOException If the lexicon cannot be written
+   */
+  public void export(MatrixSnapshot snapshot, Trainer.Scorer scorer) throws IOException {
+    long start = System.nanoTime();
+    String[] words = snapshot.words();
+    File tmp = new File(output.getPath() + ".tmp");
+    try (Writer writer = new BufferedWriter(new FileWriter(tmp))) {
+      pool.invoke(new ScoreTask(snapshot, scorer, trainer.getHeader(), words, 0, words.length, writer));
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+    Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    System.err.println("Exported " + words.length + " words after " + snapshot.getProcessedInstances()
+        + " lines in " + (System.nanoTime() - start) / 1000000 + " ms");
+  }
+
+  /**
+   * Waits for a running export, writes a last one from the given snapshot and releases the threads.
+   * @param snapshot The final rows to score
+   * @param scorer A copy of the final model and its projection, or null to skip the last export
+   * @throws IOException If the lexicon cannot be written
+   */
+  public void finish(MatrixSnapshot snapshot, Trainer.Scorer scorer) throws IOException {
+    try {
+      if (running != null) {
+        running.get();
+      }
+      if (scorer != null) {
+        export(snapshot, scorer);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException ex) {
+      ex.printStackTrace();
+    } finally {
+      scanner.shutdown();
+      pool.shutdown();
+    }
+  }
+
+  private class ScoreTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final MatrixSnapshot snapshot;
+    private final Trainer.Scorer scorer;
+    private final InstancesHeader header;
+    private final String[] words;
+    private final int from;
+    private final int to;
+    private final Writer writer;
+
+    ScoreTask(MatrixSnapshot snapshot, Trainer.Scorer scorer, InstancesHeader header, String[] words,
+              int from, int to, Writer writer) {
+      this.snapshot = snapshot;
+      this.scorer = scorer;
+      this.header = header;
+      this.words = words;
+      this.from = from;
+      this.to = to;
+      this.writer = writer;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > PARTITION_SIZE) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ScoreTask(snapshot, scorer, header, words, from, mid, writer),
+            new ScoreTask(snapshot, scorer, header, words, mid, to, writer));
+        return;
+      }
+
+      StringBuilder sb = new StringBuilder();
+      for (int i = from; i < to; i++) {
+        if (words[i].equals("unk")) {
+          continue;
+        }
+        SparseInstance inst = snapshot.toInstance(snapshot.getRow(words[i]), header);
+        double[] votes = scorer.votes(inst);
+        int best = Utils.maxIndex(votes);
+        double total = 0;
+        for (double v : votes) {
+          total += v;
+        }
+        double confidence = (total > 0) ? votes[best] / total : 0;
+        sb.append(words[i]).append('\t').append(best == 1 ? 1 : -1).append('\t')
+            .append(confidence).append('\n');
+      }
+      try {
+        synchronized (writer) {
+          writer.write(sb.toString());
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+}
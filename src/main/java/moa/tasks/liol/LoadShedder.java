@@ -0,0 +1,163 @@
+package moa.tasks.liol;
+
+import java.util.Random;
+
+/**
+ * <h1>Sheds work when the matrix falls behind its input</h1>
+ *
+ * Between two batches the shedder compares the matrix against a service level objective: a
+ * maximum lag, the lines waiting divided by the rate lines were consumed at since the last
+ * check, and a minimum throughput, only violated while lines are waiting (a slow source is not
+ * the matrix's fault). The lines waiting are those the source reports: files and directories
+ * add the lines of their unread bytes to the read-ahead buffer, so the lag keeps growing with
+ * the backlog. Standard input and sockets only report the buffer, so their lag saturates at
+ * its readAhead batches divided by the rate; a maximum lag below that is still enforced, one
+ * above it is never reached. Every check that violates the objective
+ * raises the shedding level by one, every check comfortably within it (lag under half the
+ * maximum, throughput over 1.5 times the minimum) lowers it by one:
+ * <ol>
+ *   <li>instances of words outside the seed lexicons are no longer sent to the trainer, their
+ *       rows are still counted and are scored again at their next emission</li>
+ *   <li>the window is halved as well</li>
+ *   <li>and up: one line in 2^(level - 2) is kept as well, down to one in 2^(MAX_LEVEL - 2),
+ *       chosen at random with a fixed seed</li>
+ * </ol>
+ * Everything shed is counted exactly, so the approximation can be accounted for.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class LoadShedder {
+
+  static final long CHECK_NANOS = 250000000L;
+  static final int SKIP_EMISSIONS = 1;
+  static final int NARROW_WINDOW = 2;
+  static final int SAMPLE_LINES = 3;
+  static final int MAX_LEVEL = 8;
+
+  private final long maxLagMillis;
+  private final double minLinesPerSecond;
+  private final Random sampler;
+
+  private int level;
+  private int maxLevelReached;
+  private boolean started;
+  private long lastCheck;
+  private long linesAtLastCheck;
+  private double linesPerSecond;
+  private double lagMillis;
+
+  private long linesConsumed; // Every line that reached the shedder, shed or not
+  private long linesShed;
+  private long linesNarrowed;
+  private long pairsShed;
+  private long emissionsShed;
+  private long violations;
+
+  /**
+   * @param maxLagMillis The maximum lag behind the input, 0 for none
+   * @param minLinesPerSecond The minimum throughput while lines are waiting, 0 for none
+   * @param seed The seed of the line sampling, so runs can be repeated
+   */
+  public LoadShedder(long maxLagMillis, double minLinesPerSecond, long seed) {
+    this.maxLagMillis = maxLagMillis;
+    this.minLinesPerSecond = minLinesPerSecond;
+    this.sampler = new Random(seed);
+  }
+
+  /**
+   * Adapts the level to the lag and throughput since the last check, called between batches.
+   * @param input The source, asked for the lines waiting only once per check interval
+   * @param now The current System.nanoTime()
+   */
+  public void check(InputSource input, long now) {
+    if (!started) {
+      started = true;
+      lastCheck = now;
+      linesAtLastCheck = linesConsumed;
+      return;
+    }
+    long elapsed = now - lastCheck;
+    if (elapsed < CHECK_NANOS) {
+      return;
+    }
+    long linesWaiting = input.linesWaiting();
+    linesPerSecond = (linesConsumed - linesAtLastCheck) * 1e9 / elapsed;
+    lagMillis = (linesPerSecond > 0) ? linesWaiting * 1000.0 / linesPerSecond
+        : (linesWaiting > 0) ? Double.POSITIVE_INFINITY : 0;
+    lastCheck = now;
+    linesAtLastCheck = linesConsumed;
+
+    boolean lagging = maxLagMillis > 0 && lagMillis > maxLagMillis;
+    boolean slow = minLinesPerSecond > 0 && linesWaiting > 0 && linesPerSecond < minLinesPerSecond;
+    if (lagging || slow) {
+      violations++;
+      level = Math.min(MAX_LEVEL, level + 1);
+      maxLevelReached = Math.max(maxLevelReached, level);
+    } else if (level > 0 && (maxLagMillis == 0 || lagMillis < maxLagMillis / 2.0)
+        && (minLinesPerSecond == 0 || linesWaiting == 0 || linesPerSecond > 1.5 * minLinesPerSecond)) {
+      level--;
+    }
+  }
+
+  /**
+   * Decides whether a line is processed, called for every line.
+   * @return false if the line is shed
+   */
+  public boolean keepLine() {
+    linesConsumed++;
+    if (level >= SAMPLE_LINES && sampler.nextInt(1 << (level - NARROW_WINDOW)) != 0) {
+      linesShed++;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @param windowSize The configured window size
+   * @return The window size to use for the next line
+   */
+  public int window(int windowSize) {
+    return (level >= NARROW_WINDOW) ? Math.max(1, windowSize / 2) : windowSize;
+  }
+
+  /**
+   * Accounts for a line processed with a narrowed window.
+   * @param pairs The co-occurrence pairs the full window would have counted on top
+   */
+  public void narrowed(long pairs) {
+    linesNarrowed++;
+    pairsShed += pairs;
+  }
+
+  /**
+   * Decides whether an instance is sent to the trainer, called for every emitted instance.
+   * @param seedWord Whether the instance's word is in the seed lexicons
+   * @return false if the instance is shed
+   */
+  public boolean keepEmission(boolean seedWord) {
+    if (level >= SKIP_EMISSIONS && !seedWord) {
+      emissionsShed++;
+      return false;
+    }
+    return true;
+  }
+
+  public int getLevel() { return level; }
+  public int getMaxLevelReached() { return maxLevelReached; }
+  public double getLagMillis() { return lagMillis; }
+  public double getLinesPerSecond() { return linesPerSecond; }
+  public long getLinesConsumed() { return linesConsumed; }
+  public long getLinesShed() { return linesShed; }
+  public long getLinesNarrowed() { return linesNarrowed; }
+  public long getPairsShed() { return pairsShed; }
+  public long getEmissionsShed() { return emissionsShed; }
+  public long getViolations() { return violations; }
+
+  @Override
+  public String toString() {
+    return linesShed + " of " + linesConsumed + " lines, " + emissionsShed + " instances and " + pairsShed
+        + " pairs on " + linesNarrowed + " narrowed lines shed, " + violations + " violations, level "
+        + level + " (at most " + maxLevelReached + ")";
+  }
+}
@@ -3,6 +3,7 @@ package moa.tasks.liol;
 import com.github.javacliparser.ClassOption;
 import com.github.javacliparser.FileOption;
 import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import moa.classifiers.functions.SGD;
 import moa.classifiers.Classifier;
@@ -15,6 +16,8 @@ import moa.evaluation.preview.LearningCurve;
 import moa.learners.Learner;
 import moa.tasks.TaskMonitor;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -42,7 +45,16 @@ public class MainRunner extends moa.tasks.ClassificationMainTask {
           "File with the SeedLexicon Test Set", null, "txt", true);
 
   public FileOption InputFileName = new FileOption("InputFileName", 'o',
-          "File with the Input Stream", null, "txt", true);
+          "File with the Input Stream (gzipped or not), a directory of rotating files, - for stdin or tcp://host:port",
+          null, "txt", true);
+  public IntOption readAheadOption = new IntOption("readAheadOption", 'r',
+          "Number of line batches read ahead of the matrix",
+          InputSource.DEFAULT_READ_AHEAD, 1, Integer.MAX_VALUE);
+  public IntOption inputBatchSizeOption = new IntOption("inputBatchSizeOption", 'x',
+          "Maximum number of lines per batch",
+          InputSource.DEFAULT_BATCH_SIZE, 1, Integer.MAX_VALUE);
+  public FlagOption followInput = new FlagOption("followInput", 'F',
+          "Keep tailing an input directory for new files instead of stopping at its end");
 
   public IntOption vocabSizeOption = new IntOption("vocabSizeOption", 'v',
           "Max Size of Vocabulary",
@@ -60,6 +72,109 @@ public class MainRunner extends moa.tasks.ClassificationMainTask {
   public IntOption sampleFrequency = new IntOption("sampleFrequency", 'f',
           "Sample Frequency",
           1000, 100, Integer.MAX_VALUE);
+
+  public IntOption similarityTablesOption = new IntOption("similarityTablesOption", 'n',
+          "Number of SimHash bands used to pick the candidates of /neighbours queries (0 scores every row)",
+          0, 0, 64);
+  public IntOption similarityBitsOption = new IntOption("similarityBitsOption", 'b',
+          "Signature bits per SimHash table (tables * bits must not exceed 64)",
+          8, 1, 32);
+
+  public FileOption lexiconOutputFile = new FileOption("lexiconOutputFile", 'l',
+          "File the induced lexicon of the whole vocabulary is written to", null, "txt", true);
+  public IntOption exportIntervalOption = new IntOption("exportIntervalOption", 'e',
+          "Export the induced lexicon every this many lines (0 only exports at the end)",
+          0, 0, Integer.MAX_VALUE);
+  public IntOption exportThreadsOption = new IntOption("exportThreadsOption", 'j',
+          "Number of threads scoring the vocabulary during an export (0 uses every core)",
+          0, 0, 1024);
+
+  public IntOption queryPortOption = new IntOption("queryPortOption", 'q',
+          "Local port of the HTTP endpoint for live polarity lookups (0 disables it)",
+          0, 0, 65535);
+  public IntOption publishIntervalOption = new IntOption("publishIntervalOption", 'u',
+          "Publish a fresh snapshot to the HTTP endpoint every this many lines",
+          1000, 1, Integer.MAX_VALUE);
+
+  public IntOption projectionSizeOption = new IntOption("projectionSizeOption", 'k',
+          "Number of features the word vectors are reduced to, at most 100 with -a (0 uses 10% of the attributes)",
+          0, 0, Integer.MAX_VALUE);
+  public FlagOption frequentDirections = new FlagOption("frequentDirections", 'a',
+          "Project onto the top directions of a Frequent Directions sketch instead of a random projection");
+  public IntOption sketchRowsOption = new IntOption("sketchRowsOption", 'g',
+          "Rows of the Frequent Directions sketch, at most 400 (0 uses twice the number of features)",
+          0, 0, Integer.MAX_VALUE);
+  public IntOption sketchRefreshOption = new IntOption("sketchRefreshOption", 'm',
+          "Refresh the projection basis every this many sketched rows, mapping the classifier's weights onto it",
+          10000, 1, Integer.MAX_VALUE);
+  public IntOption sketchSampleOption = new IntOption("sketchSampleOption", 's',
+          "Add only every this many emitted rows to the sketch",
+          16, 1, Integer.MAX_VALUE);
+  public FlagOption singlePrecision = new FlagOption("singlePrecision", 'z',
+          "Store and compute the projection in float32 instead of double");
+
+  public IntOption rowLimitOption = new IntOption("rowLimitOption", 'K',
+          "Keep at most this many contexts per row, a new one replacing the lightest (0 for no limit)",
+          0, 0, Integer.MAX_VALUE);
+
+  public FlagOption approximateCounts = new FlagOption("approximateCounts", 'C',
+          "Keep the counts of the rows as 8 bit Morris counters, exact up to 64 and approximate above");
+
+  public FloatOption subsampleOption = new FloatOption("subsampleOption", 'T',
+          "Subsample tokens more frequent than this, e.g. 1e-4 (0 keeps every token)",
+          0, 0, 1);
+
+  public IntOption learnerQueueOption = new IntOption("learnerQueueOption", 'L',
+          "Train on a separate thread fed through a ring of this many emitted instances (0 trains inline)",
+          0, 0, Integer.MAX_VALUE);
+
+  public IntOption hotRowsOption = new IntOption("hotRowsOption", 'H',
+          "Keep the contexts of only this many recently used rows in memory, spilling the rest to a memory-mapped file in the temporary directory (0 keeps every row in memory)",
+          0, 0, Integer.MAX_VALUE);
+
+  public IntOption duplicateWindowOption = new IntOption("duplicateWindowOption", 'D',
+          "Drop lines repeating one of the last this many to twice this many lines (0 keeps duplicates)",
+          0, 0, Integer.MAX_VALUE);
+  public IntOption duplicatePeriodOption = new IntOption("duplicatePeriodOption", 'U',
+          "With -D, compare lines only with those of the last one to two periods of this many ms (0 compares by lines only)",
+          0, 0, Integer.MAX_VALUE);
+  public FlagOption nearDuplicates = new FlagOption("nearDuplicates", 'N',
+          "Also drop lines nearly repeating a recent one, e.g. retweets with a comment or edited spam");
+
+  public IntOption maxLagOption = new IntOption("maxLagOption", 'A',
+          "Shed work once the lines waiting would take longer than this many ms to process (0 for no lag objective)",
+          0, 0, Integer.MAX_VALUE);
+  public IntOption minThroughputOption = new IntOption("minThroughputOption", 'Y',
+          "Shed work while lines are waiting and fewer than this many are processed per second (0 for no throughput objective)",
+          0, 0, Integer.MAX_VALUE);
+
+  public IntOption memoryBudgetOption = new IntOption("memoryBudgetOption", 'M',
+          "Memory budget of the matrix, projection and model in MB, degrading instead of running out (0 for none)",
+          0, 0, Integer.MAX_VALUE);
+
+  public FileOption initialShardFile = new FileOption("initialShardFile", 'I',
+          "Matrix shard to continue from, e.g. the merge of a backfill's shards", null, "shard", false);
+  public FileOption shardOutputFile = new FileOption("shardOutputFile", 'S',
+          "File the matrix is written to as a mergeable shard at the end of the stream", null, "shard", true);
+
+  public FileOption instanceLogFile = new FileOption("instanceLogFile", 'E',
+          "Binary log every emitted instance is appended to, for replaying into the learner", null, "log", true);
+  public FileOption replayLogFile = new FileOption("replayLogFile", 'R',
+          "Train on an instance log instead of building the matrix from the input", null, "log", false);
+
+  public FileOption watchListFile = new FileOption("watchListFile", 'W',
+          "Words, one per line, whose predicted polarity is recorded every time they reach the learner", null, "txt", false);
+  public FileOption trajectoryFile = new FileOption("trajectoryFile", 'P',
+          "File the recorded trajectories of the watch list are written to at the end of the stream", null, "bin", true);
+  public IntOption trajectoryCapacityOption = new IntOption("trajectoryCapacityOption", 'B',
+          "Number of recent predictions recorded per watched word",
+          1024, 1, Integer.MAX_VALUE);
+
+  public FlagOption referenceMode = new FlagOption("referenceMode", 'V',
+          "Run the plain reference implementation of the matrix and projection instead of the optimized one");
+  public IntOption projectionSeedOption = new IntOption("projectionSeedOption", 'G',
+          "Seed of the random projection, 0 for a different one every run",
+          0, 0, Integer.MAX_VALUE);
 //
 //  public ClassOption learnerOption = new ClassOption("learner", 'l', "Classifier to train.", Classifier.class,
 //          "functions.SGD");
@@ -94,9 +209,10 @@ public class MainRunner extends moa.tasks.ClassificationMainTask {
         MainRunner runner = new MainRunner();
         
         ArrayList<Integer> params = new ArrayList<>();
-        InputObject seedLexTrain = new InputObject(args[0]);
-        InputObject seedLexTest = new InputObject(args[8]);
-        InputObject inStream = new InputObject(args[1]);
+        InputObject seedLexTrain = InputObject.small(args[0]);
+        InputObject seedLexTest = InputObject.small(args[8]);
+        InputSource inStream = InputSource.open(args[1], InputSource.DEFAULT_BATCH_SIZE,
+            InputSource.DEFAULT_READ_AHEAD, false);
         
         for (int i = 2; i < 6; i++) {
           if (tryParse(args[i])) {
@@ -126,6 +242,19 @@ public class MainRunner extends moa.tasks.ClassificationMainTask {
     }
   }
   
+  /**
+   * Writes the trajectories of the watch list, if both were given.
+   */
+  private void exportTrajectories() {
+    if (trajectoryFile.getValue() != null && !trajectoryFile.getValue().isEmpty()) {
+      try {
+        trainer.exportTrajectories(new File(trajectoryFile.getValue()));
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
   /**
    * Runs the filter software and eventually the classifiers.
    * @param params A list of the parameters for the word context matrix (vocab size, context size,
@@ -133,8 +262,10 @@ public class MainRunner extends moa.tasks.ClassificationMainTask {
    * @param seedLexTrain The lexicon of known words and their polarities.
    * @param sketch The sketching choice
    * @param weight The weighting choice
+   * @return The matrix, once the input stream has been consumed, or null if an instance log was
+   * replayed or the reference mode ran instead
    */
-  private void run(InputObject seedLexTrain,InputObject seedLexTest, InputObject inputStream, ArrayList<Integer> params,
+  WordContextMatrix run(InputSource seedLexTrain,InputSource seedLexTest, InputSource inputStream, ArrayList<Integer> params,
                    int sketch, int weight, LearningCurve learningCurve, TaskMonitor taskMonitor, int sampleFrequency) {
     
     boolean preceiseCPUTiming = TimingUtils.enablePreciseTiming();
@@ -143,10 +274,51 @@ public class MainRunner extends moa.tasks.ClassificationMainTask {
     // Read in the lexicon and give it to the trainer.
     trainer = new Trainer(evaluateStartTime,learningCurve,taskMonitor);
     trainer.initialize(seedLexTrain,seedLexTest);
+    trainer.setProjectionSize(projectionSizeOption.getValue());
+    if (projectionSeedOption.getValue() > 0) {
+      trainer.setSeed(projectionSeedOption.getValue());
+    }
+    trainer.setSinglePrecision(singlePrecision.isSet());
+    if (frequentDirections.isSet()) {
+      trainer.useFrequentDirections(sketchRowsOption.getValue(), sketchRefreshOption.getValue(),
+          sketchSampleOption.getValue());
+    }
+
+    // Follow the polarity of a few words over time
+    if (watchListFile.getValue() != null && !watchListFile.getValue().isEmpty()) {
+      try {
+        trainer.setTrajectoryRecorder(TrajectoryRecorder.fromFile(new File(watchListFile.getValue()),
+            trajectoryCapacityOption.getValue()));
+      } catch (IOException ex) {
+        throw new RuntimeException("Cannot read " + watchListFile.getValue(), ex);
+      }
+    }
+
+    // Tune the learner on the instances of an earlier run, skipping the matrix entirely
+    if (replayLogFile.getValue() != null && !replayLogFile.getValue().isEmpty()) {
+      try {
+        InstanceLog.replay(new File(replayLogFile.getValue()), trainer);
+      } catch (IOException ex) {
+        throw new RuntimeException("Cannot replay " + replayLogFile.getValue(), ex);
+      }
+      exportTrajectories();
+      return null;
+    }
     System.err.println("Vocab size: " + params.get(0) + " Context size: " + params.get(1) +
      " Window size: " + params.get(2) + " Sketching method: " + sketch + " Weighting method: " +
         weight + " Sample Frequency: "+ sampleFrequency);
     
+    // The plain implementation the optimized one is checked against, with none of its options
+    if (referenceMode.isSet()) {
+      trainer.setReferenceMode(true);
+      ReferenceMatrix rm = new ReferenceMatrix(params.get(0), params.get(1), params.get(2), inputStream, trainer);
+      rm.setSketchingMethod(sketch);
+      rm.setWeightingMethod(weight);
+      rm.buildMatrix();
+      exportTrajectories();
+      return null;
+    }
+
     WordContextMatrix wcm = new WordContextMatrix(params.get(0), params.get(1),
         params.get(2), inputStream, trainer);
 
@@ -155,9 +327,104 @@ public class MainRunner extends moa.tasks.ClassificationMainTask {
     
     // Set the weighting method
     wcm.setWeightingMethod(weight);
+
+    // Bound the width of the rows, before a shard fills them
+    wcm.setRowLimit(rowLimitOption.getValue());
+
+    // A byte per count instead of an int, before a shard fills the rows
+    if (approximateCounts.isSet()) {
+      wcm.setApproximateCounts(1L);
+    }
+
+    // Drop some of the stopwords and punctuation before they reach the windows
+    wcm.setSubsampling(subsampleOption.getValue(), 1L);
+
+    // Overlap the counting with the learning
+    wcm.setLearnerQueue(learnerQueueOption.getValue());
+
+    // Retweets and spam are only counted once
+    if (duplicateWindowOption.getValue() > 0) {
+      wcm.setDuplicateFilter(new DuplicateFilter(duplicateWindowOption.getValue(),
+          duplicatePeriodOption.getValue(), nearDuplicates.isSet()));
+    }
+
+    // Stay fresh on a live input by shedding work
+    if (maxLagOption.getValue() > 0 || minThroughputOption.getValue() > 0) {
+      wcm.setLoadShedder(new LoadShedder(maxLagOption.getValue(), minThroughputOption.getValue(), 1L));
+    }
+
+    // Keep the emitted instances for replaying
+    if (instanceLogFile.getValue() != null && !instanceLogFile.getValue().isEmpty()) {
+      try {
+        wcm.setInstanceLog(new InstanceLog.Writer(new File(instanceLogFile.getValue()), params.get(1),
+            wcm.isHashing));
+      } catch (IOException ex) {
+        throw new RuntimeException("Cannot open " + instanceLogFile.getValue(), ex);
+      }
+    }
+
+    // Continue from a previously built matrix
+    if (initialShardFile.getValue() != null && !initialShardFile.getValue().isEmpty()) {
+      try {
+        wcm.loadShard(new File(initialShardFile.getValue()));
+      } catch (IOException ex) {
+        throw new RuntimeException("Cannot load " + initialShardFile.getValue(), ex);
+      }
+    }
+
+    // Stay within the memory budget by refusing new words and evicting rows
+    if (memoryBudgetOption.getValue() > 0) {
+      wcm.setMemoryBudget(new MemoryBudget(memoryBudgetOption.getValue() * 1024L * 1024L));
+    }
+
+    // Keep the nearest-neighbour index up to date while building
+    if (similarityTablesOption.getValue() > 0) {
+      wcm.enableSimilarityIndex(similarityTablesOption.getValue(), similarityBitsOption.getValue(), 1L);
+    }
+
+    // Spill the rows that have gone cold
+    if (hotRowsOption.getValue() > 0) {
+      try {
+        wcm.enableRowSpill(hotRowsOption.getValue(), null);
+      } catch (IOException ex) {
+        throw new RuntimeException("Cannot create the row spill", ex);
+      }
+    }
+
+    // Score the whole vocabulary into an induced lexicon, periodically and at the end
+    if (lexiconOutputFile.getValue() != null && !lexiconOutputFile.getValue().isEmpty()) {
+      wcm.setLexiconExporter(new LexiconExporter(new File(lexiconOutputFile.getValue()),
+          trainer, exportThreadsOption.getValue()), exportIntervalOption.getValue());
+    }
     
+    // Serve live lookups while the matrix is being built
+    QueryServer queryServer = null;
+    if (queryPortOption.getValue() > 0) {
+      try {
+        queryServer = new QueryServer(queryPortOption.getValue(), 4, trainer);
+        queryServer.start();
+        wcm.setQueryServer(queryServer, publishIntervalOption.getValue());
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+
     // Begin
     wcm.buildMatrix();
+    exportTrajectories();
+
+    if (shardOutputFile.getValue() != null && !shardOutputFile.getValue().isEmpty()) {
+      try {
+        MatrixShard.write(wcm.snapshot(), new File(shardOutputFile.getValue()));
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+
+    if (queryServer != null) {
+      queryServer.stop();
+    }
+    return wcm;
   }
 
   @Override
@@ -175,9 +442,10 @@ public class MainRunner extends moa.tasks.ClassificationMainTask {
     int sketchOptValue = enableHashing.isSet()?1:0;
     int weighingOptValue = enablePPMI.isSet()?1:0;
 
-    InputObject seedLexTrain = new InputObject(SeedLexiconTrain.getValue());
-    InputObject seedLexTest = new InputObject(SeedLexiconTest.getValue());
-    InputObject inStream = new InputObject(InputFileName.getValue());
+    InputObject seedLexTrain = InputObject.small(SeedLexiconTrain.getValue());
+    InputObject seedLexTest = InputObject.small(SeedLexiconTest.getValue());
+    InputSource inStream = InputSource.open(InputFileName.getValue(), inputBatchSizeOption.getValue(),
+        readAheadOption.getValue(), followInput.isSet());
 
     run(seedLexTrain,seedLexTest,inStream,inputParams,sketchOptValue,weighingOptValue,learningCurve,taskMonitor,sampleFrequency.getValue());
 
@@ -0,0 +1,310 @@
+package moa.tasks.liol;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <h1>A mergeable, self-describing dump of a word-context matrix</h1>
+ *
+ * Indices are assigned first-come by every matrix, so a shard never stores them: contexts are
+ * written by name and reconciled when shards are merged or loaded. The layout, gzipped:
+ * <ul>
+ *   <li>a header: magic, version, context size, hashing and PPMI flags, tokens seen, lines
+ *       processed, the bin counts when hashing, and the context words in index order otherwise</li>
+ *   <li>the rows sorted by word, each row's contexts sorted by name, so shards can be merged by
+ *       streaming through all of them at once, whatever their size</li>
+ *   <li>a false marker after the last row</li>
+ * </ul>
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class MatrixShard {
+
+  private static final int MAGIC = 0x4c494f4c; // "LIOL"
+  private static final int VERSION = 1;
+
+  /**
+   * The marginals and the context index of a shard.
+   */
+  public static class Header {
+    final int contextSize;
+    final boolean isHashing;
+    final boolean isPPMI;
+    final long tokensSeen;
+    final long processedInstances;
+    final long[] binCounts; // Only when hashing
+    final String[] contextWords; // In index order, only when not hashing
+
+    Header(int contextSize, boolean isHashing, boolean isPPMI, long tokensSeen,
+           long processedInstances, long[] binCounts, String[] contextWords) {
+      this.contextSize = contextSize;
+      this.isHashing = isHashing;
+      this.isPPMI = isPPMI;
+      this.tokensSeen = tokensSeen;
+      this.processedInstances = processedInstances;
+      this.binCounts = binCounts;
+      this.contextWords = contextWords;
+    }
+
+    public int getContextSize() { return contextSize; }
+    public boolean isHashing() { return isHashing; }
+    public long getTokensSeen() { return tokensSeen; }
+    public long getProcessedInstances() { return processedInstances; }
+  }
+
+  /**
+   * One row of a shard, its contexts sorted by name.
+   */
+  public static class Row {
+    final String word;
+    final int numTweets;
+    final String[] keys;
+    final int[] counts;
+
+    Row(String word, int numTweets, String[] keys, int[] counts) {
+      this.word = word;
+      this.numTweets = numTweets;
+      this.keys = keys;
+      this.counts = counts;
+    }
+
+    public String getWord() { return word; }
+  }
+
+  /**
+   * Writes a snapshot of a matrix as a shard.
+   * @param snapshot The snapshot to write
+   * @param file The shard file
+   * @throws IOException If the shard cannot be written
+   */
+  public static void write(MatrixSnapshot snapshot, File file) throws IOException {
+    long[] binCounts = null;
+    String[] contextWords = null;
+    if (snapshot.isHashing) {
+      binCounts = new long[snapshot.contextSize];
+      for (int i = 0; i < binCounts.length; i++) {
+        binCounts[i] = snapshot.contextBinCounts[i];
+      }
+    } else {
+      contextWords = new String[snapshot.contextWordIndices.size()];
+      for (Object2IntMap.Entry<String> e : snapshot.contextWordIndices.object2IntEntrySet()) {
+        contextWords[e.getIntValue()] = e.getKey();
+      }
+    }
+    Header header = new Header(snapshot.contextSize, snapshot.isHashing, snapshot.isPPMI,
+        snapshot.tokensSeen, snapshot.processedInstances, binCounts, contextWords);
+
+    String[] words = snapshot.words();
+    Arrays.sort(words);
+    File tmp = temporaryFor(file);
+    try (Writer writer = new Writer(tmp, header)) {
+      for (String word : words) {
+        MatrixSnapshot.RowSnapshot row = snapshot.getRow(word);
+        writer.write(word, row.numTweets, row.keys, row.counts, row.keys.length);
+      }
+    }
+    moveIntoPlace(tmp, file);
+  }
+
+  /**
+   * @param file A shard file
+   * @return The file a shard is written to before being moved into place, so a failed write never
+   * leaves a shard that looks complete
+   */
+  static File temporaryFor(File file) {
+    return new File(file.getPath() + ".tmp");
+  }
+
+  static void moveIntoPlace(File tmp, File file) throws IOException {
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Writes a shard row by row. Rows must be written in increasing word order.
+   */
+  public static class Writer implements Closeable {
+    private final DataOutputStream out;
+    private String lastWord;
+
+    public Writer(File file, Header header) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(
+          new GZIPOutputStream(new FileOutputStream(file), 1 << 16), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(header.contextSize);
+      out.writeBoolean(header.isHashing);
+      out.writeBoolean(header.isPPMI);
+      out.writeLong(header.tokensSeen);
+      out.writeLong(header.processedInstances);
+      if (header.isHashing) {
+        for (int i = 0; i < header.contextSize; i++) {
+          out.writeLong(header.binCounts[i]);
+        }
+      } else {
+        out.writeInt(header.contextWords.length);
+        for (String w : header.contextWords) {
+          out.writeUTF(w);
+        }
+      }
+    }
+
+    /**
+     * Writes a row, sorting its contexts. The arrays are not modified.
+     * @param word The word of the row
+     * @param numTweets The row's tweet count
+     * @param keys The context names
+     * @param counts Their counts
+     * @param n The number of contexts in the arrays
+     * @throws IOException If the row cannot be written or is out of order
+     */
+    public void write(String word, int numTweets, String[] keys, int[] counts, int n)
+        throws IOException {
+      if (lastWord != null && lastWord.compareTo(word) >= 0) {
+        throw new IOException("Rows out of order: " + word + " after " + lastWord);
+      }
+      lastWord = word;
+
+      Integer[] order = new Integer[n];
+      for (int i = 0; i < n; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+      out.writeBoolean(true);
+      out.writeUTF(word);
+      out.writeInt(numTweets);
+      out.writeInt(n);
+      for (int i = 0; i < n; i++) {
+        out.writeUTF(keys[order[i]]);
+        out.writeInt(counts[order[i]]);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.writeBoolean(false);
+      out.close();
+    }
+  }
+
+  /**
+   * Reads a shard row by row.
+   */
+  public static class Reader implements Closeable {
+    private final DataInputStream in;
+    private final Header header;
+    private final String name;
+    private String lastWord;
+
+    public Reader(File file) throws IOException {
+      this.name = file.getPath();
+      this.in = new DataInputStream(new BufferedInputStream(
+          new GZIPInputStream(new FileInputStream(file), 1 << 16), 1 << 16));
+      if (in.readInt() != MAGIC) {
+        in.close();
+        throw new IOException(name + " is not a matrix shard");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        in.close();
+        throw new IOException(name + " has unsupported shard version " + version);
+      }
+      int contextSize = in.readInt();
+      boolean isHashing = in.readBoolean();
+      boolean isPPMI = in.readBoolean();
+      long tokensSeen = in.readLong();
+      long processedInstances = in.readLong();
+      long[] binCounts = null;
+      String[] contextWords = null;
+      if (isHashing) {
+        binCounts = new long[contextSize];
+        for (int i = 0; i < contextSize; i++) {
+          binCounts[i] = in.readLong();
+        }
+      } else {
+        contextWords = new String[in.readInt()];
+        for (int i = 0; i < contextWords.length; i++) {
+          contextWords[i] = in.readUTF();
+        }
+      }
+      this.header = new Header(contextSize, isHashing, isPPMI, tokensSeen, processedInstances,
+          binCounts, contextWords);
+    }
+
+    public Header getHeader() { return header; }
+
+    /**
+     * @return The next row, or null after the last one
+     * @throws IOException If the shard is truncated or its rows are out of order
+     */
+    public Row next() throws IOException {
+      if (!in.readBoolean()) {
+        return null;
+      }
+      String word = in.readUTF();
+      if (lastWord != null && lastWord.compareTo(word) >= 0) {
+        throw new IOException(name + " has rows out of order: " + word + " after " + lastWord);
+      }
+      lastWord = word;
+      int numTweets = in.readInt();
+      int n = in.readInt();
+      String[] keys = new String[n];
+      int[] counts = new int[n];
+      for (int i = 0; i < n; i++) {
+        keys[i] = in.readUTF();
+        counts[i] = in.readInt();
+      }
+      return new Row(word, numTweets, keys, counts);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * Reconciles the context indices of several shards the way a single matrix reading the shards'
+   * slices in order would have: first come, first indexed, until the context size is reached.
+   * @param headers The headers, in the order of their slices of the corpus
+   * @return The context words of the merged index, in index order
+   */
+  static String[] mergeContextWords(Header[] headers) {
+    ObjectArrayList<String> merged = new ObjectArrayList<>();
+    ObjectOpenHashSet<String> seen = new ObjectOpenHashSet<>();
+    for (Header h : headers) {
+      for (String w : h.contextWords) {
+        if (merged.size() == h.contextSize) {
+          break;
+        }
+        if (seen.add(w)) {
+          merged.add(w);
+        }
+      }
+    }
+    return merged.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,283 @@
+package moa.tasks.liol;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <h1>An immutable, point-in-time copy of the word-context matrix</h1>
+ *
+ * Taken by the ingesting thread between two lines, so every row and every marginal belongs to the
+ * same moment of the stream. The rows are split by the hash of their word into a fixed number of
+ * small chunks. A chunk without a changed row is shared with the previous snapshot as it is, so
+ * taking a snapshot only costs copying the chunks of the rows touched in between, in proportion
+ * to the number of changed rows rather than to the vocabulary. Once published a snapshot is never
+ * modified and can be read by any number of threads.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class MatrixSnapshot {
+
+  static final int ROWS_PER_CHUNK = 16;
+  private static final int MAX_CHUNKS = 1 << 16;
+
+  final Object2ObjectOpenHashMap<String, RowSnapshot>[] chunks; // Shared between snapshots, never modified
+  private final int size;
+  private final long tableBytes;
+  final Object2IntMap<String> contextWordIndices;
+  final long[] contextBinCounts; // Only used when hashing
+  final long tokensSeen;
+  final long processedInstances;
+  final int contextSize;
+  final boolean isPPMI;
+  final boolean isHashing;
+  final SimHashIndex similarityIndex; // Only its band layout is used, null if rows have no signature
+
+  MatrixSnapshot(Object2ObjectOpenHashMap<String, RowSnapshot>[] chunks, Object2IntMap<String> contextWordIndices,
+                 long[] contextBinCounts, long tokensSeen, long processedInstances, int contextSize,
+                 boolean isPPMI, boolean isHashing) {
+    this(chunks, contextWordIndices, contextBinCounts, tokensSeen, processedInstances, contextSize,
+        isPPMI, isHashing, null);
+  }
+
+  MatrixSnapshot(Object2ObjectOpenHashMap<String, RowSnapshot>[] chunks, Object2IntMap<String> contextWordIndices,
+                 long[] contextBinCounts, long tokensSeen, long processedInstances, int contextSize,
+                 boolean isPPMI, boolean isHashing, SimHashIndex similarityIndex) {
+    this.chunks = chunks;
+    int n = 0;
+    long bytes = MemoryBudget.align(MemoryBudget.ARRAY_HEADER + (long) MemoryBudget.REF * chunks.length);
+    for (Object2ObjectOpenHashMap<String, RowSnapshot> chunk : chunks) {
+      n += chunk.size();
+      bytes += MemoryBudget.openHashBytes(chunk.size(), MemoryBudget.REF, MemoryBudget.REF);
+    }
+    this.size = n;
+    this.tableBytes = bytes;
+    this.contextWordIndices = contextWordIndices;
+    this.contextBinCounts = contextBinCounts;
+    this.tokensSeen = tokensSeen;
+    this.processedInstances = processedInstances;
+    this.contextSize = contextSize;
+    this.isPPMI = isPPMI;
+    this.isHashing = isHashing;
+    this.similarityIndex = similarityIndex;
+  }
+
+  public long getTokensSeen() { return tokensSeen; }
+  public long getProcessedInstances() { return processedInstances; }
+  public int size() { return size; }
+
+  /**
+   * @return An estimate of the bytes held by the chunk tables, not counting the rows
+   */
+  long tableBytes() { return tableBytes; }
+
+  /**
+   * @param vocabSize The maximum size of the vocabulary
+   * @return The number of chunks to split the rows of a matrix of that size into, a power of two
+   */
+  static int numChunks(int vocabSize) {
+    return Integer.highestOneBit(Math.max(1, Math.min(vocabSize / ROWS_PER_CHUNK, MAX_CHUNKS)));
+  }
+
+  /**
+   * @param numChunks The number of chunks, a power of two
+   * @return As many empty chunk tables
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static Object2ObjectOpenHashMap<String, RowSnapshot>[] emptyChunks(int numChunks) {
+    Object2ObjectOpenHashMap<String, RowSnapshot>[] chunks = new Object2ObjectOpenHashMap[numChunks];
+    for (int c = 0; c < numChunks; c++) {
+      chunks[c] = new Object2ObjectOpenHashMap<>();
+    }
+    return chunks;
+  }
+
+  /**
+   * @param word A word
+   * @param numChunks The number of chunks, a power of two
+   * @return The chunk the word's row belongs to
+   */
+  static int chunkOf(String word, int numChunks) {
+    return HashCommon.mix(word.hashCode()) & (numChunks - 1);
+  }
+
+  /**
+   * @param word The word to look up
+   * @return The frozen row of the word, or null if it was not in the vocabulary
+   */
+  public RowSnapshot getRow(String word) {
+    return chunks[chunkOf(word, chunks.length)].get(word);
+  }
+
+  /**
+   * @return Every word of the vocabulary at the time of the snapshot
+   */
+  public String[] words() {
+    String[] words = new String[size];
+    int i = 0;
+    for (Object2ObjectOpenHashMap<String, RowSnapshot> chunk : chunks) {
+      for (String word : chunk.keySet()) {
+        words[i++] = word;
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Creates the sparse instance of a frozen row, with exactly the layout and weighting the
+   * matrix' own sparseCreator produces for a live row.
+   * @param row The row to convert
+   * @param header The header to attach to the instance
+   * @return The sparse instance, with a missing class value
+   */
+  public SparseInstance toInstance(RowSnapshot row, InstancesHeader header) {
+    int n = row.keys.length;
+    long[] order = new long[n];
+    int unkIndex = contextWordIndices.getInt("unk");
+    for (int i = 0; i < n; i++) {
+      int idx;
+      if (contextWordIndices.containsKey(row.keys[i])) {
+        idx = contextWordIndices.getInt(row.keys[i]);
+      } else if (isHashing) {
+        throw new IllegalStateException("Context bin missing from the snapshot: " + row.keys[i]);
+      } else {
+        idx = unkIndex;
+      }
+      // Sorting index and position together keeps equal indices in their original order
+      order[i] = ((long) idx << 32) | i;
+    }
+    Arrays.sort(order);
+
+    int[] indexValues = new int[n + 1];
+    double[] attribValues = new double[n + 1];
+    for (int i = 0; i < n; i++) {
+      int pos = (int) order[i];
+      indexValues[i] = (int) (order[i] >>> 32);
+      attribValues[i] = isPPMI ? ppmi(row, pos) : row.counts[pos];
+    }
+    indexValues[n] = contextSize;
+    attribValues[n] = Double.NaN;
+
+    SparseInstance inst = new SparseInstance(1, attribValues, indexValues, contextSize + 1);
+    inst.setDataset(header);
+    return inst;
+  }
+
+  /**
+   * Finds the k words whose rows are closest to the given word's row by cosine similarity of
+   * their counts. When the rows carry SimHash signatures only the words sharing a band with the
+   * query are scored, otherwise every row is. Reads nothing but the snapshot, so request threads
+   * can query it while the matrix goes on.
+   * @param word The query word
+   * @param k The number of neighbours to return
+   * @return The neighbours, most similar first, or an empty list if the word is not in the snapshot
+   */
+  public List<Neighbour> nearestNeighbours(String word, int k) {
+    return nearestNeighbours(word, k, similarityIndex != null);
+  }
+
+  /**
+   * @param useIndex Whether only the words sharing a band with the query are scored
+   */
+  List<Neighbour> nearestNeighbours(String word, int k, boolean useIndex) {
+    List<Neighbour> result = new ArrayList<>();
+    RowSnapshot query = getRow(word);
+    if (query == null || query.squaredNorm == 0 || k < 1) {
+      return result;
+    }
+    Object2IntOpenHashMap<String> queryCounts = new Object2IntOpenHashMap<>(query.keys.length);
+    for (int i = 0; i < query.keys.length; i++) {
+      queryCounts.put(query.keys[i], query.counts[i]);
+    }
+
+    PriorityQueue<Neighbour> best = new PriorityQueue<>(k + 1);
+    for (Object2ObjectOpenHashMap<String, RowSnapshot> chunk : chunks) {
+      for (RowSnapshot row : chunk.values()) {
+        if (row == query || row.squaredNorm == 0 || row.word.equals("unk")
+            || (useIndex && !similarityIndex.shareBand(query.signature, row.signature))) {
+          continue;
+        }
+        long dot = 0;
+        for (int i = 0; i < row.keys.length; i++) {
+          dot += (long) row.counts[i] * queryCounts.getInt(row.keys[i]);
+        }
+        double sim = dot / Math.sqrt((double) query.squaredNorm * row.squaredNorm);
+        if (best.size() < k) {
+          best.add(new Neighbour(row.word, sim));
+        } else if (sim > best.peek().getSimilarity()) {
+          best.poll();
+          best.add(new Neighbour(row.word, sim));
+        }
+      }
+    }
+
+    while (!best.isEmpty()) {
+      result.add(best.poll());
+    }
+    Collections.reverse(result);
+    return result;
+  }
+
+  private double ppmi(RowSnapshot row, int pos) {
+    String key = row.keys[pos];
+    long contextWordCount;
+    if (isHashing) {
+      contextWordCount = contextBinCounts[contextWordIndices.getInt(key)];
+    } else {
+      RowSnapshot contextRow = getRow(contextWordIndices.containsKey(key) ? key : "unk");
+      contextWordCount = (contextRow == null) ? 1 : contextRow.numTweets;
+    }
+    double pmiRes = ((double) row.counts[pos] * tokensSeen) / (row.numTweets * contextWordCount);
+    return Math.max(0.0, Math.log(pmiRes) / Math.log(2));
+  }
+
+  /**
+   * The frozen counts of a single word, in the iteration order of the live row.
+   */
+  public static class RowSnapshot {
+    final String word;
+    final String[] keys;
+    final int[] counts;
+    final int numTweets;
+    final long squaredNorm;
+    final long signature; // The SimHash signature, 0 without the similarity index
+
+    RowSnapshot(String word, String[] keys, int[] counts, int numTweets, long squaredNorm) {
+      this(word, keys, counts, numTweets, squaredNorm, 0L);
+    }
+
+    RowSnapshot(String word, String[] keys, int[] counts, int numTweets, long squaredNorm, long signature) {
+      this.word = word;
+      this.keys = keys;
+      this.counts = counts;
+      this.numTweets = numTweets;
+      this.squaredNorm = squaredNorm;
+      this.signature = signature;
+    }
+
+    public String getWord() { return word; }
+    public int numContexts() { return keys.length; }
+    public int getNumTweets() { return numTweets; }
+    public long getSquaredNorm() { return squaredNorm; }
+
+    /**
+     * @return An estimate of the bytes held by the copy, the words themselves being shared
+     */
+    long sizeInBytes() {
+      return MemoryBudget.align(MemoryBudget.OBJECT_HEADER + 3 * MemoryBudget.REF + 4 + 2 * 8)
+          + MemoryBudget.align(MemoryBudget.ARRAY_HEADER + (long) MemoryBudget.REF * keys.length)
+          + MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 4L * counts.length);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package moa.tasks.liol;
+
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * <h1>Estimates the heap held by the matrix and decides when it has to give some back</h1>
+ *
+ * The estimates follow the layout of a 64 bit HotSpot JVM with compressed references: 12 byte
+ * object headers, 16 byte array headers, 4 byte references and everything aligned to 8 bytes.
+ * Open hash maps are charged for their real table capacity, not just their size, since that is
+ * what they hold on to.
+ *
+ * With a budget set, the matrix degrades in two steps rather than running out of memory:
+ * <ul>
+ *   <li>above ADMISSION_LIMIT of the budget no new word is admitted to the vocabulary or the
+ *       context index, they are counted as unk instead, until usage is back under PRUNE_TARGET</li>
+ *   <li>above PRUNE_LIMIT of the budget the weakest rows are evicted until usage is back under
+ *       PRUNE_TARGET</li>
+ * </ul>
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class MemoryBudget {
+
+  static final int OBJECT_HEADER = 12;
+  static final int ARRAY_HEADER = 16;
+  static final int REF = 4;
+
+  static final double ADMISSION_LIMIT = 0.80;
+  static final double PRUNE_LIMIT = 0.95;
+  static final double PRUNE_TARGET = 0.70;
+
+  // A fastutil open hash map or set without its tables: header, the table references and its
+  // int fields (n, mask, maxFill, size, ...) and float load factor
+  private static final long HASH_OBJECT = align(OBJECT_HEADER + 4 * REF + 6 * 4 + 4);
+
+  private final long budget;
+  private boolean admissionClosed;
+
+  /**
+   * @param budget The budget in bytes, 0 for accounting only
+   */
+  public MemoryBudget(long budget) {
+    this.budget = budget;
+  }
+
+  public long getBudget() { return budget; }
+
+  /**
+   * Updates the admission state for the current usage.
+   * @param used The bytes currently held
+   * @return Whether new words may still be admitted
+   */
+  public boolean admitting(long used) {
+    if (budget <= 0) {
+      return true;
+    }
+    if (used >= ADMISSION_LIMIT * budget) {
+      admissionClosed = true;
+    } else if (used < PRUNE_TARGET * budget) {
+      admissionClosed = false;
+    }
+    return !admissionClosed;
+  }
+
+  /**
+   * @param used The bytes currently held
+   * @return The number of bytes to free, 0 while usage is under the pruning limit
+   */
+  public long excess(long used) {
+    if (budget <= 0 || used < PRUNE_LIMIT * budget) {
+      return 0;
+    }
+    return used - (long) (PRUNE_TARGET * budget);
+  }
+
+  /**
+   * @param bytes The size of an object
+   * @return The size rounded up to the 8 byte alignment of the JVM
+   */
+  static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  /**
+   * @param s A string
+   * @return The bytes held by the string and its characters
+   */
+  static long stringBytes(String s) {
+    return align(OBJECT_HEADER + REF + 4) + align(ARRAY_HEADER + 2L * s.length());
+  }
+
+  /**
+   * The bytes held by a fastutil open hash map or set, not counting the objects it refers to.
+   * @param size The number of entries
+   * @param keyBytes The bytes of a key slot, REF for object keys
+   * @param valueBytes The bytes of a value slot, 0 for a set
+   * @return The bytes of the map object and its tables
+   */
+  static long openHashBytes(int size, int keyBytes, int valueBytes) {
+    // The table is grown as soon as it reaches its maximum fill
+    int n = Math.max(Hash.DEFAULT_INITIAL_SIZE, HashCommon.arraySize(size + 1, Hash.DEFAULT_LOAD_FACTOR));
+    // fastutil keeps one extra slot for the null key
+    long bytes = HASH_OBJECT + align(ARRAY_HEADER + (long) (n + 1) * keyBytes);
+    if (valueBytes > 0) {
+      bytes += align(ARRAY_HEADER + (long) (n + 1) * valueBytes);
+    }
+    return bytes;
+  }
+
+  /**
+   * @param bytes A number of bytes
+   * @return A readable form of the byte count
+   */
+  static String megabytes(long bytes) {
+    return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+  }
+}
@@ -0,0 +1,235 @@
+package moa.tasks.liol;
+
+import it.unimi.dsi.fastutil.objects.AbstractObject2IntMap;
+import it.unimi.dsi.fastutil.objects.AbstractObjectSet;
+import it.unimi.dsi.fastutil.objects.Object2ByteMap;
+import it.unimi.dsi.fastutil.objects.Object2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ObjectSet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * <h1>A map of approximate counts, one byte per count</h1>
+ *
+ * Each count is stored as an 8 bit code of a Morris-style counter: the codes up to EXACT stand
+ * for themselves, so the small counts that make up most of a row stay exact, and the codes above
+ * grow geometrically by a factor of about 1.095 up to Integer.MAX_VALUE. Only the representable
+ * values can be stored, round() brings any other count to one of its two neighbours at random so
+ * that the expected stored value is the count itself. Incrementing a stored value and rounding
+ * is then Morris' probabilistic increment: an unbiased estimate with a relative standard error
+ * of about sqrt((1.095 - 1) / 2) = 0.22 for counts well above EXACT.
+ *
+ * The map wraps a fastutil Object2ByteOpenHashMap and presents the decoded counts, so to the
+ * rows it is an Object2IntMap like any other. Its keys cost what the keys of the exact maps cost,
+ * its values a quarter.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class MorrisCountMap extends AbstractObject2IntMap<String> {
+
+  private static final long serialVersionUID = 1L;
+
+  static final int EXACT = 64;
+  static final int[] VALUES = new int[256];
+
+  static {
+    double base = Math.pow((double) Integer.MAX_VALUE / EXACT, 1.0 / (255 - EXACT));
+    double v = EXACT;
+    for (int c = 0; c < VALUES.length; c++) {
+      if (c <= EXACT) {
+        VALUES[c] = c;
+      } else {
+        v *= base;
+        VALUES[c] = (int) Math.max(VALUES[c - 1] + 1, Math.min(Integer.MAX_VALUE, Math.round(v)));
+      }
+    }
+  }
+
+  private final Object2ByteOpenHashMap<String> codes;
+
+  public MorrisCountMap() {
+    this.codes = new Object2ByteOpenHashMap<>();
+  }
+
+  /**
+   * @param expected The expected number of keys
+   */
+  public MorrisCountMap(int expected) {
+    this.codes = new Object2ByteOpenHashMap<>(expected);
+  }
+
+  /**
+   * Rounds a count to a representable value, up or down at random such that the expected result
+   * is the count.
+   * @param count A count, not negative
+   * @param random The source of the rounding decisions
+   * @return A value the map can store exactly
+   */
+  static int round(int count, Random random) {
+    if (count <= EXACT) {
+      return count;
+    }
+    int c = floorCode(count);
+    int low = VALUES[c];
+    if (low == count || c == VALUES.length - 1) {
+      return low;
+    }
+    int high = VALUES[c + 1];
+    return (random.nextDouble() * (high - low) < count - low) ? high : low;
+  }
+
+  /**
+   * @return The largest code whose value is not above the count
+   */
+  private static int floorCode(int count) {
+    int c = Arrays.binarySearch(VALUES, count);
+    return (c >= 0) ? c : -c - 2;
+  }
+
+  private static int decode(byte code) {
+    return VALUES[code & 0xff];
+  }
+
+  /**
+   * @param count A count, rounded down if it is not representable
+   */
+  private static byte encode(int count) {
+    return (byte) floorCode(count);
+  }
+
+  @Override
+  public int getInt(Object key) {
+    return decode(codes.getByte(key));
+  }
+
+  @Override
+  public int put(String key, int value) {
+    return decode(codes.put(key, encode(value)));
+  }
+
+  @Override
+  public int removeInt(Object key) {
+    return decode(codes.removeByte(key));
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return codes.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return codes.size();
+  }
+
+  @Override
+  public void clear() {
+    codes.clear();
+  }
+
+  @Override
+  public ObjectSet<String> keySet() {
+    return codes.keySet();
+  }
+
+  @Override
+  public ObjectSet<Object2IntMap.Entry<String>> object2IntEntrySet() {
+    return new EntrySet(); // Not kept, it would cost every row a field and an object
+  }
+
+  /**
+   * The entries, decoded on the fly. The fast iterator reuses one entry, as fastutil's do. Setting
+   * the value of an entry stores it in the map, rounded down like put().
+   */
+  private class EntrySet extends AbstractObjectSet<Object2IntMap.Entry<String>>
+      implements Object2IntMap.FastEntrySet<String> {
+
+    @Override
+    public int size() {
+      return codes.size();
+    }
+
+    @Override
+    public ObjectIterator<Object2IntMap.Entry<String>> iterator() {
+      return new Iterator(false);
+    }
+
+    @Override
+    public ObjectIterator<Object2IntMap.Entry<String>> fastIterator() {
+      return new Iterator(true);
+    }
+  }
+
+  private class Iterator implements ObjectIterator<Object2IntMap.Entry<String>> {
+    private final ObjectIterator<Object2ByteMap.Entry<String>> it = codes.object2ByteEntrySet().fastIterator();
+    private final boolean reuse;
+    private Entry entry;
+
+    Iterator(boolean reuse) {
+      this.reuse = reuse;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return it.hasNext();
+    }
+
+    @Override
+    public Object2IntMap.Entry<String> next() {
+      Object2ByteMap.Entry<String> e = it.next();
+      if (!reuse || entry == null) {
+        entry = new Entry();
+      }
+      entry.key = e.getKey();
+      entry.value = decode(e.getByteValue());
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      it.remove();
+    }
+  }
+
+  private class Entry implements Object2IntMap.Entry<String> {
+    private String key;
+    private int value;
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public int getIntValue() {
+      return value;
+    }
+
+    @Override
+    public int setValue(int v) {
+      int old = value;
+      byte code = encode(v);
+      codes.put(key, code);
+      value = decode(code);
+      return old;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Object2IntMap.Entry)) {
+        return false;
+      }
+      Object2IntMap.Entry<?> e = (Object2IntMap.Entry<?>) o;
+      return key.equals(e.getKey()) && value == e.getIntValue();
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ value;
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package moa.tasks.liol;
+
+/**
+ * A word together with its cosine similarity to some query word.
+ * Returned by the nearest-neighbour queries of a matrix snapshot.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class Neighbour implements Comparable<Neighbour> {
+  private final String word;
+  private final double similarity;
+
+  public Neighbour(String word, double similarity) {
+    this.word = word;
+    this.similarity = similarity;
+  }
+
+  public String getWord() { return word; }
+  public double getSimilarity() { return similarity; }
+
+  /**
+   * Orders neighbours from least to most similar.
+   * @param other The neighbour to compare against
+   * @return The comparison of the two similarities
+   */
+  @Override
+  public int compareTo(Neighbour other) {
+    return Double.compare(similarity, other.similarity);
+  }
+
+  @Override
+  public String toString() {
+    return word + ":" + similarity;
+  }
+}
@@ -0,0 +1,32 @@
+package moa.tasks.liol;
+
+/**
+ * <h1>Reduces a sparse word-context vector to the H features the learner sees</h1>
+ *
+ * Implementations are immutable once built, so the trainer can swap in a new one atomically while
+ * other threads are still projecting with the old one.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public interface Projection {
+
+  /**
+   * @return H, the number of output features
+   */
+  int size();
+
+  /**
+   * Projects a sparse vector.
+   * @param idx The indices of the non-zero values, all smaller than d
+   * @param val The non-zero values
+   * @param nnz The number of non-zero values
+   * @param out Receives the H features, must be at least H long
+   */
+  void project(int[] idx, double[] val, int nnz, double[] out);
+
+  /**
+   * @return An estimate of the bytes held by the weights
+   */
+  long sizeInBytes();
+}
@@ -0,0 +1,301 @@
+package moa.tasks.liol;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.core.Utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <h1>A local HTTP endpoint for live lookups while the stream is being processed</h1>
+ *
+ * The ingesting thread periodically publishes a {@link MatrixSnapshot}, a {@link Trainer.Scorer} and
+ * the current metrics through a single volatile reference. Request threads only ever read the
+ * latest published state, so ingestion never waits on a reader and never takes a lock. With a
+ * learner thread, the scorer and the classifier metrics are the ones it last published itself,
+ * see Trainer.requestPublication, so ingestion does not wait on the learner either.
+ * Binds to the loopback address only.
+ *
+ * Endpoints (all answer JSON):
+ * <ul>
+ *   <li>/polarity?word=w - the predicted polarity and confidence of a word</li>
+ *   <li>/row?word=w - the statistics of a word's row</li>
+ *   <li>/neighbours?word=w&amp;k=n - the n words whose rows are the most similar to the word's,
+ *       10 by default</li>
+ *   <li>/metrics - the classifier and matrix metrics</li>
+ *   <li>/trajectory?word=w - the recent scores of a word on the watch list, copied from the
+ *       trainer under its lock, the one request the learner may briefly wait for</li>
+ * </ul>
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class QueryServer {
+
+  private static final int DEFAULT_NEIGHBOURS = 10;
+  private static final int MAX_NEIGHBOURS = 1000;
+
+  private final HttpServer server;
+  private final ExecutorService workers;
+  private final Trainer trainer;
+  private volatile State state;
+
+  /**
+   * @param port The local port to listen on
+   * @param threads The number of request threads
+   * @param trainer The trainer whose projection is used to score words
+   * @throws IOException If the port cannot be bound
+   */
+  public QueryServer(int port, int threads, Trainer trainer) throws IOException {
+    this.trainer = trainer;
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.workers = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "query-server");
+      t.setDaemon(true);
+      return t;
+    });
+    server.setExecutor(workers);
+    server.createContext("/polarity", new Handler() {
+      String answer(State s, Map<String, String> query) {
+        return polarity(s, query.get("word"));
+      }
+    });
+    server.createContext("/row", new Handler() {
+      String answer(State s, Map<String, String> query) {
+        return row(s, query.get("word"));
+      }
+    });
+    server.createContext("/neighbours", new Handler() {
+      String answer(State s, Map<String, String> query) {
+        String k = query.get("k");
+        return neighbours(s, query.get("word"), (k == null) ? DEFAULT_NEIGHBOURS : Integer.parseInt(k));
+      }
+    });
+    server.createContext("/metrics", new Handler() {
+      String answer(State s, Map<String, String> query) {
+        return metrics(s);
+      }
+    });
+    server.createContext("/trajectory", new Handler() {
+      String answer(State s, Map<String, String> query) {
+        return trajectory(query.get("word"));
+      }
+    });
+  }
+
+  public void start() {
+    server.start();
+    System.err.println("Query server listening on " + server.getAddress());
+  }
+
+  public void stop() {
+    server.stop(0);
+    workers.shutdown();
+  }
+
+  /**
+   * Makes a new state visible to the request threads. Called by the ingesting thread only.
+   * @param snapshot The matrix snapshot
+   * @param scorer A copy of the model and its projection, may be null before the first instance
+   * @param metrics The metrics at the time of the snapshot
+   */
+  public void publish(MatrixSnapshot snapshot, Trainer.Scorer scorer, Map<String, Double> metrics) {
+    state = new State(snapshot, scorer, trainer.getHeader(), metrics);
+  }
+
+  private String polarity(State s, String word) {
+    if (word == null) {
+      return null;
+    }
+    String cached = s.polarities.get(word);
+    if (cached != null) {
+      return cached;
+    }
+    MatrixSnapshot.RowSnapshot row = s.snapshot.getRow(word);
+    String result;
+    if (row == null || s.scorer == null) {
+      result = "{\"word\":" + quote(word) + ",\"known\":false}";
+    } else {
+      double[] votes = s.scorer.votes(s.snapshot.toInstance(row, s.header));
+      int best = Utils.maxIndex(votes);
+      double total = 0;
+      for (double v : votes) {
+        total += v;
+      }
+      result = "{\"word\":" + quote(word) + ",\"known\":true,\"polarity\":" + (best == 1 ? 1 : -1)
+          + ",\"confidence\":" + ((total > 0) ? votes[best] / total : 0)
+          + ",\"line\":" + s.snapshot.getProcessedInstances() + "}";
+    }
+    s.polarities.put(word, result);
+    return result;
+  }
+
+  private String row(State s, String word) {
+    if (word == null) {
+      return null;
+    }
+    MatrixSnapshot.RowSnapshot row = s.snapshot.getRow(word);
+    if (row == null) {
+      return "{\"word\":" + quote(word) + ",\"known\":false}";
+    }
+    return "{\"word\":" + quote(word) + ",\"known\":true,\"contexts\":" + row.numContexts()
+        + ",\"numTweets\":" + row.getNumTweets() + ",\"norm\":" + Math.sqrt(row.getSquaredNorm())
+        + ",\"line\":" + s.snapshot.getProcessedInstances() + "}";
+  }
+
+  private String neighbours(State s, String word, int k) {
+    if (word == null) {
+      return null;
+    }
+    if (k < 1 || k > MAX_NEIGHBOURS) {
+      throw new IllegalArgumentException("k must be between 1 and " + MAX_NEIGHBOURS);
+    }
+    if (s.snapshot.getRow(word) == null) {
+      return "{\"word\":" + quote(word) + ",\"known\":false}";
+    }
+    List<Neighbour> neighbours = s.snapshot.nearestNeighbours(word, k);
+    StringBuilder sb = new StringBuilder("{\"word\":").append(quote(word))
+        .append(",\"known\":true,\"neighbours\":[");
+    for (int i = 0; i < neighbours.size(); i++) {
+      sb.append((i > 0) ? "," : "").append("{\"word\":").append(quote(neighbours.get(i).getWord()))
+          .append(",\"similarity\":").append(jsonNumber(neighbours.get(i).getSimilarity())).append('}');
+    }
+    return sb.append("],\"line\":").append(s.snapshot.getProcessedInstances()).append('}').toString();
+  }
+
+  /**
+   * The recent scores of a watched word, straight from the trainer rather than the published
+   * state, as they are recorded as the learner goes.
+   */
+  private String trajectory(String word) {
+    if (word == null) {
+      return null;
+    }
+    TrajectoryRecorder.Trajectory t = trainer.trajectory(word);
+    if (t == null) {
+      return "{\"word\":" + quote(word) + ",\"watched\":false}";
+    }
+    StringBuilder sb = new StringBuilder("{\"word\":").append(quote(word))
+        .append(",\"watched\":true,\"recorded\":").append(t.getRecorded()).append(",\"instances\":[");
+    for (int k = 0; k < t.getInstances().length; k++) {
+      sb.append((k > 0) ? "," : "").append(t.getInstances()[k]);
+    }
+    sb.append("],\"scores\":[");
+    for (int k = 0; k < t.getScores().length; k++) {
+      sb.append((k > 0) ? "," : "").append(t.getScores()[k]);
+    }
+    return sb.append("]}").toString();
+  }
+
+  private String metrics(State s) {
+    StringBuilder sb = new StringBuilder("{");
+    sb.append("\"line\":").append(s.snapshot.getProcessedInstances());
+    sb.append(",\"tokensSeen\":").append(s.snapshot.getTokensSeen());
+    sb.append(",\"vocabulary\":").append(s.snapshot.size());
+    for (Map.Entry<String, Double> e : s.metrics.entrySet()) {
+      sb.append(',').append(quote(e.getKey())).append(':').append(jsonNumber(e.getValue()));
+    }
+    return sb.append('}').toString();
+  }
+
+  private static String jsonNumber(double d) {
+    return (Double.isNaN(d) || Double.isInfinite(d)) ? "null" : Double.toString(d);
+  }
+
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * Everything a request needs, published as one immutable unit.
+   */
+  private static class State {
+    final MatrixSnapshot snapshot;
+    final Trainer.Scorer scorer;
+    final InstancesHeader header;
+    final Map<String, Double> metrics;
+    // Answers computed by request threads for this state, never touched by the ingesting thread
+    final ConcurrentHashMap<String, String> polarities = new ConcurrentHashMap<>();
+
+    State(MatrixSnapshot snapshot, Trainer.Scorer scorer, InstancesHeader header, Map<String, Double> metrics) {
+      this.snapshot = snapshot;
+      this.scorer = scorer;
+      this.header = header;
+      this.metrics = metrics;
+    }
+  }
+
+  private abstract class Handler implements HttpHandler {
+    abstract String answer(State s, Map<String, String> query);
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int status = 200;
+      String body;
+      State s = state;
+      try {
+        if (s == null) {
+          status = 503;
+          body = "{\"error\":\"nothing published yet\"}";
+        } else {
+          body = answer(s, parseQuery(exchange.getRequestURI().getRawQuery()));
+          if (body == null) {
+            status = 400;
+            body = "{\"error\":\"missing word parameter\"}";
+          }
+        }
+      } catch (IllegalArgumentException ex) {
+        status = 400; // Including a parameter that is not a number
+        body = "{\"error\":" + quote(String.valueOf(ex.getMessage())) + "}";
+      } catch (RuntimeException ex) {
+        status = 500;
+        body = "{\"error\":" + quote(String.valueOf(ex)) + "}";
+      }
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(bytes);
+      }
+    }
+
+    private Map<String, String> parseQuery(String raw) throws IOException {
+      Map<String, String> result = new HashMap<>();
+      if (raw == null) {
+        return result;
+      }
+      for (String pair : raw.split("&")) {
+        int eq = pair.indexOf('=');
+        if (eq > 0) {
+          result.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+              URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package moa.tasks.liol;
+
+import java.util.Random;
+
+/**
+ * A fixed Gaussian random projection followed by a ReLU, the data independent reduction the
+ * trainer has always used.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class RandomProjection implements Projection {
+
+  private final double[][] W;
+
+  /**
+   * @param h The number of output features
+   * @param d The number of input attributes
+   * @param random The source of the Gaussian weights
+   */
+  public RandomProjection(int h, int d, Random random) {
+    // initialize ReLU features
+    W = new double[h][d];
+    for(int j = 0; j < h; j++) {
+      for(int k = 0; k < d; k++) {
+        W[j][k] = random.nextGaussian();
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return W.length;
+  }
+
+  @Override
+  public long sizeInBytes() {
+    return MemoryBudget.align(MemoryBudget.ARRAY_HEADER + (long) MemoryBudget.REF * W.length)
+        + W.length * MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 8L * W[0].length);
+  }
+
+  @Override
+  public void project(int[] idx, double[] val, int nnz, double[] out) {
+    for(int k = 0; k < W.length; k++) {
+      // for each hidden unit ...
+      double a_k = 0.; 								// k-th activation (dot product)
+      double[] w_k = W[k];
+      for(int i = 0; i < nnz; i++) {
+        a_k += (val[i] * w_k[idx[i]]);
+      }
+      out[k] = (a_k > 0. ? a_k : 0.);				  // <------- can change threshold here
+    }
+  }
+}
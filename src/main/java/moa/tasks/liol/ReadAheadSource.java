@@ -0,0 +1,321 @@
+package moa.tasks.liol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <h1>Base class of the input sources, reading ahead on a thread of its own</h1>
+ *
+ * The reader thread collects lines into batches and hands them over through a bounded queue.
+ * A batch is handed over when it is full or when the underlying input has nothing more ready,
+ * so a slow trickle of lines is not held back waiting for a full batch. When the queue is full
+ * the reader thread blocks, which in turn stops reading from the file, pipe or socket.
+ *
+ * An error opening or reading the input ends the stream for the reader thread, and is rethrown to
+ * the consumer by nextBatch() once the batches read before it have been taken, so a missing or
+ * broken input fails the run rather than passing for an empty one.
+ *
+ * Without read ahead the lines are read on the consumer's thread instead, for inputs too small to
+ * be worth a thread, like the seed lexicons.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public abstract class ReadAheadSource implements InputSource {
+
+  private static final String[] END = new String[0];
+
+  private final int batchSize;
+  private final BlockingQueue<String[]> queue; // null when reading on the consumer's thread
+  private final AtomicLong queuedLines = new AtomicLong(); // Lines in the queue, or about to be
+  private volatile long linesRead; // Lines read from the input so far
+  private Thread readerThread;
+  private volatile boolean closed;
+  private boolean finished;
+  private volatile IOException failure; // Set by the reader thread before it ends the stream
+
+  protected BufferedReader reader;
+
+  // The batch getNextInstance() is currently handing out
+  private String[] current = END;
+  private int position;
+
+  /**
+   * @param batchSize The maximum number of lines per batch
+   * @param readAhead The number of batches buffered ahead of the consumer, 0 to read on the
+   *                  consumer's thread
+   */
+  protected ReadAheadSource(int batchSize, int readAhead) {
+    this.batchSize = batchSize;
+    this.queue = (readAhead > 0) ? new ArrayBlockingQueue<String[]>(readAhead) : null;
+  }
+
+  /**
+   * Opens the underlying input, called on the reader thread.
+   * @return The reader the lines are read from
+   * @throws IOException If the input cannot be opened
+   */
+  protected abstract BufferedReader open() throws IOException;
+
+  /**
+   * @return A name for the reader thread and error messages
+   */
+  protected abstract String describe();
+
+  /**
+   * @return The next line of the underlying input, or null at its end
+   * @throws IOException On read errors
+   */
+  protected String readLine() throws IOException {
+    return reader.readLine();
+  }
+
+  /**
+   * @return Whether another line can be read without blocking
+   * @throws IOException On read errors
+   */
+  protected boolean moreAvailable() throws IOException {
+    return reader.ready();
+  }
+
+  /**
+   * @return The bytes of the input read so far, -1 if the source cannot tell
+   */
+  protected long inputBytesRead() {
+    return -1;
+  }
+
+  /**
+   * @return The bytes of the input not read yet, -1 if the source cannot tell
+   */
+  protected long inputBytesUnread() {
+    return -1;
+  }
+
+  /**
+   * @return Whether close() was called
+   */
+  protected boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * @throws RuntimeException If the input could not be opened or read
+   */
+  @Override
+  public String[] nextBatch() {
+    if (finished) {
+      return null;
+    }
+    if (queue == null) {
+      return readBatch();
+    }
+    start();
+    try {
+      String[] batch = queue.take();
+      if (batch == END) {
+        finished = true;
+        IOException ex = failure;
+        if (ex != null) {
+          throw new RuntimeException("Cannot read " + describe(), ex);
+        }
+        return null;
+      }
+      queuedLines.addAndGet(-batch.length);
+      return batch;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      finished = true;
+      return null;
+    }
+  }
+
+  @Override
+  public String getNextInstance() {
+    while (position == current.length) {
+      current = nextBatch();
+      position = 0;
+      if (current == null) {
+        current = END;
+        return null;
+      }
+    }
+    return current[position++];
+  }
+
+  /**
+   * @return The number of batches read ahead and waiting for the consumer
+   */
+  public int backlog() {
+    return (queue == null) ? 0 : queue.size();
+  }
+
+  /**
+   * The lines not read yet are estimated from the bytes not read yet at the average line length
+   * so far. The input is read through buffers, so this falls short by up to their size.
+   */
+  @Override
+  public long linesWaiting() {
+    long waiting = queuedLines.get() + current.length - position;
+    long read = inputBytesRead();
+    long unread = inputBytesUnread();
+    if (read > 0 && unread > 0) {
+      waiting += (long) ((double) linesRead * unread / read);
+    }
+    return waiting;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (readerThread != null) {
+      readerThread.interrupt();
+    } else if (queue == null) {
+      closeReader();
+    }
+  }
+
+  /**
+   * Reads the next batch on the calling thread.
+   */
+  private String[] readBatch() {
+    try {
+      if (reader == null) {
+        reader = open();
+      }
+      String[] batch = new String[batchSize];
+      int n = 0;
+      String line;
+      while (n < batchSize && (line = readLine()) != null) {
+        batch[n++] = line;
+      }
+      linesRead += n;
+      if (n < batchSize) {
+        finished = true;
+        closeReader();
+      }
+      return (n == 0) ? null : (n == batchSize) ? batch : Arrays.copyOf(batch, n);
+    } catch (IOException ex) {
+      finished = true;
+      closeReader();
+      throw new RuntimeException("Cannot read " + describe(), ex);
+    }
+  }
+
+  private void closeReader() {
+    try {
+      if (reader != null) {
+        reader.close();
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private synchronized void start() {
+    if (readerThread != null) {
+      return;
+    }
+    readerThread = new Thread(this::readAll, "input-" + describe());
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  private void readAll() {
+    try {
+      reader = open();
+      String[] batch = new String[batchSize];
+      int n = 0;
+      String line;
+      while (!closed && (line = readLine()) != null) {
+        batch[n++] = line;
+        if (n == batchSize || !moreAvailable()) {
+          queuedLines.addAndGet(n);
+          linesRead += n;
+          queue.put((n == batchSize) ? batch : Arrays.copyOf(batch, n));
+          batch = new String[batchSize];
+          n = 0;
+        }
+      }
+      if (n > 0) {
+        queuedLines.addAndGet(n);
+        linesRead += n;
+        queue.put(Arrays.copyOf(batch, n));
+      }
+    } catch (InterruptedException ex) {
+      // Closed while waiting for the consumer
+    } catch (IOException ex) {
+      // Closing the source may fail a read in progress, that is no error
+      if (!closed) {
+        failure = ex;
+      }
+    } finally {
+      closeReader();
+      endOfStream();
+    }
+  }
+
+  private void endOfStream() {
+    // Make room if the consumer has gone away, it will never take the remaining batches anyway
+    while (!queue.offer(END)) {
+      if (closed) {
+        queue.clear();
+      } else {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException ex) {
+          queue.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The position of a file, -1 if it is closed or not a regular file
+   */
+  static long position(FileInputStream in) {
+    try {
+      return (in == null) ? -1 : in.getChannel().position();
+    } catch (IOException ex) {
+      return -1;
+    }
+  }
+
+  /**
+   * Opens a file for reading, transparently decompressing it if it is gzipped.
+   * @param file The file to open
+   * @return A reader over the (decompressed) content
+   * @throws IOException If the file cannot be opened
+   */
+  static BufferedReader openFile(File file) throws IOException {
+    return openFile(new FileInputStream(file));
+  }
+
+  /**
+   * @param file The opened file, its position tells how much of it was read
+   * @return A reader over the (decompressed) content
+   * @throws IOException If the file cannot be read
+   */
+  static BufferedReader openFile(FileInputStream file) throws IOException {
+    InputStream in = new BufferedInputStream(file, 1 << 16);
+    in.mark(2);
+    int b1 = in.read();
+    int b2 = in.read();
+    in.reset();
+    if (b1 == 0x1f && b2 == 0x8b) {
+      in = new GZIPInputStream(in, 1 << 16);
+    }
+    return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+  }
+}
@@ -0,0 +1,356 @@
+package moa.tasks.liol;
+
+import cmu.arktweetnlp.Twokenize;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import com.yahoo.labs.samoa.instances.SparseInstance;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <h1>The word-context matrix in its plainest form, the reference the optimized one is held to</h1>
+ *
+ * Builds the rows and emits the instances of the original buildMatrix, sparseCreator and ppmizer,
+ * in the same order, but with nothing done for speed: plain java.util maps, the window of every
+ * position cut out of the line, every instance sorted through a TreeMap and PPMI computed straight
+ * from its definition. Its behaviour is frozen here on purpose, see {@link EquivalenceChecker}.
+ *
+ * The original semantics:
+ * <ul>
+ *   <li>a line is lower cased and tokenized, every token counts towards the total, and all of
+ *       its tokens enter the vocabulary while there is room, and with hashing count towards
+ *       their bins, before any window is built</li>
+ *   <li>every position but the last is a focus, its window is the sub list from window positions
+ *       before it to window positions after it, itself included. A focus without a row is
+ *       counted in unk's row</li>
+ *   <li>every word of the window other than the focus word is counted in the focus row only.
+ *       Without hashing a word enters the context index while there is room, even the focus word,
+ *       and a word left out of it is counted as the context unk; with hashing it is counted as
+ *       its bin</li>
+ *   <li>a row that would take its last free context slot takes unk (or the bin, when hashing)
+ *       instead, with the count 1, and is full from then on: new contexts go to unk</li>
+ *   <li>the focus row's instance is emitted right after its window was counted</li>
+ *   <li>PPMI divides by the count of the context's row, so it fails on a context that has no
+ *       row, as the original did</li>
+ * </ul>
+ * The window engine of {@link WordContextMatrix} differs from this on purpose. With
+ * setRingSemantics(true) the reference follows it instead:
+ * <ul>
+ *   <li>tokens enter the vocabulary, the context index and their bins one at a time, as they
+ *       arrive</li>
+ *   <li>two positions at most window apart count each other as contexts, in both rows, as the
+ *       later position arrives</li>
+ *   <li>a position's instance is emitted when the position window + 1 further arrives, or at the
+ *       end of the line, the last position included</li>
+ *   <li>PPMI takes 1 for the count of a context without a row</li>
+ * </ul>
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class ReferenceMatrix {
+
+  private final int vocabSize;
+  private final int contextSize;
+  private final int windowSize;
+  private final InputSource inObj;
+  private final Trainer trainer;
+  private boolean isPPMI;
+  private boolean isHashing;
+  private boolean ringSemantics;
+
+  private final Map<String, Row> vocabulary = new HashMap<>();
+  private final Map<String, Integer> contextIndex = new HashMap<>();
+  private int nextPos = 1;
+  private long[] binCounts;
+  private long tokensSeen;
+  private long processedInstances;
+  private long emittedInstances;
+  private InstancesHeader header;
+
+  /**
+   * @param vSize The vocabulary size
+   * @param cSize The context vector size
+   * @param wSize The window size
+   * @param inStream The input stream
+   * @param trainer The trainer the instances are sent to
+   */
+  public ReferenceMatrix(int vSize, int cSize, int wSize, InputSource inStream, Trainer trainer) {
+    this.vocabSize = vSize;
+    this.contextSize = cSize;
+    this.windowSize = wSize;
+    this.inObj = inStream;
+    this.trainer = trainer;
+    addToVocab("unk");
+  }
+
+  /**
+   * @param methodNumber 0 = none, 1 = PPMI
+   */
+  public void setWeightingMethod(int methodNumber) {
+    if (methodNumber != 0 && methodNumber != 1) {
+      throw new InvalidParameterException();
+    }
+    this.isPPMI = methodNumber == 1;
+  }
+
+  /**
+   * @param methodNumber 0 = none, 1 = hashing
+   */
+  public void setSketchingMethod(int methodNumber) {
+    if (methodNumber != 0 && methodNumber != 1) {
+      throw new InvalidParameterException();
+    }
+    this.isHashing = methodNumber == 1;
+    if (isHashing) {
+      binCounts = new long[contextSize];
+      for (int i = 0; i < contextSize; i++) {
+        contextIndex.put("contextbin" + i, i);
+      }
+    }
+  }
+
+  /**
+   * @param ring Whether to follow the window engine's semantics rather than the original ones
+   */
+  public void setRingSemantics(boolean ring) {
+    this.ringSemantics = ring;
+  }
+
+  public long getProcessedInstances() { return processedInstances; }
+  public long getTokensSeen() { return tokensSeen; }
+  public long getEmittedInstances() { return emittedInstances; }
+
+  /**
+   * Reads the whole input and sends every emitted instance to the trainer.
+   */
+  public void buildMatrix() {
+    System.err.println("Program started, reference mode...");
+    header = WordContextMatrix.createInstanceHeader(contextSize, isHashing);
+    trainer.setHeader(header);
+    System.out.println("Num Instances,Accuracy,TP,FP,TN,FN,F1,Precision,Recall,Kappa,Time");
+
+    String line;
+    while ((line = inObj.getNextInstance()) != null) {
+      if (ringSemantics) {
+        processLineRing(line);
+      } else {
+        processLine(line);
+      }
+    }
+    inObj.close();
+    System.err.println("Program ran to completion");
+  }
+
+  private void processLine(String line) {
+    processedInstances++;
+    List<String> tokens = Twokenize.tokenizeRawTweetText(line.toLowerCase());
+    tokensSeen += tokens.size();
+    for (String token : tokens) {
+      if (isHashing) {
+        binCounts[bin(token)]++;
+      }
+      addToVocab(token);
+    }
+
+    for (int i = 0; i < tokens.size() - 1; i++) {
+      List<String> window = tokens.subList(Math.max(0, i - windowSize),
+          Math.min(tokens.size(), i + windowSize + 1));
+      String token = tokens.get(i);
+      Row focus = vocabulary.containsKey(token) ? vocabulary.get(token) : vocabulary.get("unk");
+      for (String word : window) {
+        if (isHashing) {
+          if (!word.equals(focus.word)) {
+            addToContext(focus, "contextbin" + bin(word));
+          }
+        } else {
+          if (!contextIndex.containsKey(word) && contextIndex.size() < contextSize) {
+            addToContextIndex(word);
+          }
+          if (!contextIndex.containsKey(word) && contextIndex.size() == contextSize
+              && !word.equals(focus.word)) {
+            addToContext(focus, "unk");
+          } else if (!word.equals(focus.word)) {
+            addToContext(focus, word);
+          }
+        }
+      }
+      emit(focus);
+    }
+  }
+
+  private void processLineRing(String line) {
+    processedInstances++;
+    List<String> tokens = Twokenize.tokenizeRawTweetText(line.toLowerCase());
+    tokensSeen += tokens.size();
+
+    List<Row> rows = new ArrayList<>();
+    List<String> contexts = new ArrayList<>();
+    for (int j = 0; j < tokens.size(); j++) {
+      String token = tokens.get(j);
+      contexts.add(contextOf(token));
+      addToVocab(token);
+      rows.add(vocabulary.containsKey(token) ? vocabulary.get(token) : vocabulary.get("unk"));
+
+      for (int i = Math.max(0, j - windowSize); i < j; i++) {
+        if (!token.equals(rows.get(i).word)) {
+          addToContext(rows.get(i), contexts.get(j));
+        }
+        if (!tokens.get(i).equals(rows.get(j).word)) {
+          addToContext(rows.get(j), contexts.get(i));
+        }
+      }
+      if (j - windowSize >= 0) {
+        emit(rows.get(j - windowSize));
+      }
+    }
+    for (int i = Math.max(0, tokens.size() - windowSize); i < tokens.size(); i++) {
+      emit(rows.get(i));
+    }
+  }
+
+  /**
+   * @return The key the token is counted under as a context, indexing it if there is room
+   */
+  private String contextOf(String token) {
+    if (isHashing) {
+      int bin = bin(token);
+      binCounts[bin]++;
+      return "contextbin" + bin;
+    }
+    if (contextIndex.size() < contextSize) {
+      addToContextIndex(token);
+    }
+    return contextIndex.containsKey(token) ? token : "unk";
+  }
+
+  private int bin(String token) {
+    return Math.abs(jenkinsHash(token.getBytes()) % contextSize);
+  }
+
+  /**
+   * Indexes a context if there is room, unk taking the first index.
+   */
+  private void addToContextIndex(String token) {
+    if (contextIndex.isEmpty()) {
+      contextIndex.put("unk", 0);
+    }
+    if (contextIndex.size() != contextSize && !contextIndex.containsKey(token)) {
+      contextIndex.put(token, nextPos++);
+    }
+  }
+
+  private void addToVocab(String word) {
+    if (vocabulary.size() < vocabSize && !vocabulary.containsKey(word)) {
+      vocabulary.put(word, new Row(word));
+    }
+  }
+
+  private void addToContext(Row row, String context) {
+    Integer count = row.contexts.get(context);
+    if (count != null) {
+      row.contexts.put(context, count + 1);
+    } else if (row.isFull) {
+      if (isHashing) {
+        throw new RuntimeException("Assigned context word is out of range");
+      }
+      row.contexts.put("unk", row.contexts.getOrDefault("unk", 0) + 1);
+    } else if (row.contexts.size() + 1 == contextSize) {
+      row.contexts.put(isHashing ? context : "unk", 1);
+      row.isFull = true;
+    } else {
+      row.contexts.put(context, 1);
+    }
+  }
+
+  private void emit(Row row) {
+    // Every row is created having been seen once
+    if (row.numTweets >= 1) {
+      Instance inst = toInstance(row);
+      inst.setDataset(header);
+      emittedInstances++;
+      trainer.learn(row.word, inst);
+    }
+  }
+
+  /**
+   * @return The row as a sparse instance, its contexts in index order and the class last
+   */
+  private SparseInstance toInstance(Row row) {
+    TreeMap<Integer, Double> values = new TreeMap<>();
+    for (Map.Entry<String, Integer> e : row.contexts.entrySet()) {
+      Integer index = contextIndex.get(e.getKey());
+      String context = e.getKey();
+      if (index == null) {
+        if (isHashing) {
+          throw new RuntimeException("Unknown context bin " + context);
+        }
+        index = contextIndex.get("unk");
+        context = "unk";
+      }
+      double value = e.getValue();
+      if (isPPMI) {
+        long contextCount;
+        if (isHashing) {
+          contextCount = binCounts[index];
+        } else {
+          Row contextRow = vocabulary.get(context);
+          if (contextRow == null && !ringSemantics) {
+            throw new RuntimeException("Cannot weight the context " + context + " of " + row.word
+                + ", it has no row");
+          }
+          contextCount = (contextRow == null) ? 1 : contextRow.numTweets;
+        }
+        double pmi = (value * tokensSeen) / (row.numTweets * contextCount);
+        value = Math.max(0.0, Math.log(pmi) / Math.log(2));
+      }
+      values.put(index, value);
+    }
+
+    int n = values.size();
+    int[] indices = new int[n + 1];
+    double[] attributes = new double[n + 1];
+    int i = 0;
+    for (Map.Entry<Integer, Double> e : values.entrySet()) {
+      indices[i] = e.getKey();
+      attributes[i] = e.getValue();
+      i++;
+    }
+    indices[n] = contextSize;
+    attributes[n] = Double.NaN;
+    return new SparseInstance(1, attributes, indices, contextSize + 1);
+  }
+
+  /**
+   * Jenkins' one-at-a-time hash, as the matrix hashes its contexts into bins.
+   */
+  private static int jenkinsHash(byte[] key) {
+    int hash = 0;
+    for (byte b : key) {
+      hash += b;
+      hash += hash << 10;
+      hash ^= hash >> 6;
+    }
+    hash += hash << 3;
+    hash ^= hash >> 11;
+    hash += hash << 15;
+    return hash;
+  }
+
+  private static class Row {
+    final String word;
+    final Map<String, Integer> contexts = new HashMap<>();
+    boolean isFull;
+    int numTweets = 1;
+
+    Row(String word) {
+      this.word = word;
+    }
+  }
+}
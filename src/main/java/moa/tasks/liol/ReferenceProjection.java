@@ -0,0 +1,60 @@
+package moa.tasks.liol;
+
+import java.util.Random;
+
+/**
+ * <h1>The random projection computed the way the trainer first computed it</h1>
+ *
+ * Every output feature is the dot product of the whole dense vector with its row of Gaussian
+ * weights, zeros included, followed by a ReLU. The weights are drawn exactly like those of
+ * {@link RandomProjection}, so from the same generator both compute the same features; this one
+ * is kept as slow and plain as it is for the reference mode to check the faster ones against.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class ReferenceProjection implements Projection {
+
+  private final double[][] W;
+
+  /**
+   * @param h The number of output features
+   * @param d The number of input attributes
+   * @param random The source of the Gaussian weights
+   */
+  public ReferenceProjection(int h, int d, Random random) {
+    W = new double[h][d];
+    for (int j = 0; j < h; j++) {
+      for (int k = 0; k < d; k++) {
+        W[j][k] = random.nextGaussian();
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return W.length;
+  }
+
+  @Override
+  public long sizeInBytes() {
+    return MemoryBudget.align(MemoryBudget.ARRAY_HEADER + (long) MemoryBudget.REF * W.length)
+        + W.length * MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 8L * W[0].length);
+  }
+
+  @Override
+  public void project(int[] idx, double[] val, int nnz, double[] out) {
+    int d = (W.length > 0) ? W[0].length : 0;
+    double[] x = new double[d];
+    for (int i = 0; i < nnz; i++) {
+      x[idx[i]] = val[i];
+    }
+    for (int k = 0; k < W.length; k++) {
+      double a_k = 0.;
+      for (int j = 0; j < d; j++) {
+        a_k += (x[j] * W[k][j]);
+      }
+      out[k] = (a_k > 0. ? a_k : 0.);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package moa.tasks.liol;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <h1>A memory-mapped file the contexts of cold rows are spilled to</h1>
+ *
+ * Rows are appended as records of their context indices and counts and read back in place, the
+ * operating system's page cache deciding what stays in memory. The file is mapped in chunks of
+ * CHUNK bytes, a record never straddles two of them. Records are never updated: a row that
+ * changes after it was read back gets a new record the next time it is spilled and the old one
+ * becomes garbage, which the owner reclaims by copying the live records to a fresh spill. The
+ * fresh spill is then moved to the old one's path, so a long stream registers one file for
+ * deletion on exit, not one per compaction.
+ *
+ * A record: the number of contexts n, then n pairs of context index and count, all ints in the
+ * platform's byte order.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class RowSpill implements Closeable {
+
+  static final int CHUNK = 1 << 26;
+
+  private File file;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final ObjectArrayList<MappedByteBuffer> chunks = new ObjectArrayList<>();
+  private long end; // The offset the next record is written at
+  private long garbage; // The bytes of records no row refers to any more
+
+  /**
+   * Creates a fresh spill file, deleted when it is closed or the JVM exits.
+   * @param directory The directory of the file, null for the temporary directory
+   * @throws IOException If the file cannot be created
+   */
+  public RowSpill(File directory) throws IOException {
+    this(File.createTempFile("liol-rows", ".spill", directory), true);
+  }
+
+  private RowSpill(File file, boolean deleteOnExit) throws IOException {
+    this.file = file;
+    if (deleteOnExit) {
+      file.deleteOnExit();
+    }
+    this.raf = new RandomAccessFile(file, "rw");
+    this.channel = raf.getChannel();
+  }
+
+  /**
+   * Creates an empty spill next to this one to copy its live records to. Its file is not
+   * registered for deletion on exit, replaceWith() moves it to this one's path, which is.
+   * @return The empty spill
+   * @throws IOException If the file cannot be created
+   */
+  public RowSpill emptyCopy() throws IOException {
+    return new RowSpill(File.createTempFile("liol-rows", ".spill", file.getParentFile()), false);
+  }
+
+  /**
+   * Closes this spill, deleting its file, and moves a copy made by emptyCopy() to its path.
+   * @param copy The copy, with the live records written to it
+   * @return The copy
+   * @throws IOException If this spill cannot be closed
+   */
+  public RowSpill replaceWith(RowSpill copy) throws IOException {
+    close();
+    if (copy.file.renameTo(file)) {
+      copy.file = file;
+    } else {
+      copy.file.deleteOnExit(); // Where a mapped file cannot be renamed
+    }
+    return copy;
+  }
+
+  /**
+   * @param n The number of contexts of a row
+   * @return The bytes of its record
+   */
+  static int recordBytes(int n) {
+    return 4 + 8 * n;
+  }
+
+  /**
+   * Appends a record.
+   * @param indices The context indices
+   * @param counts Their counts
+   * @param n The number of contexts
+   * @return The offset of the record
+   * @throws IOException If the file cannot be grown
+   */
+  public long write(int[] indices, int[] counts, int n) throws IOException {
+    int bytes = recordBytes(n);
+    if (bytes > CHUNK) {
+      throw new IllegalArgumentException("A row of " + n + " contexts is too wide to spill");
+    }
+    int within = (int) (end % CHUNK);
+    if (within + bytes > CHUNK) {
+      // Skip the end of the chunk
+      garbage += CHUNK - within;
+      end += CHUNK - within;
+      within = 0;
+    }
+    int c = (int) (end / CHUNK);
+    while (chunks.size() <= c) {
+      MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() * CHUNK, CHUNK);
+      chunk.order(ByteOrder.nativeOrder());
+      chunks.add(chunk);
+    }
+    MappedByteBuffer chunk = chunks.get(c);
+    chunk.putInt(within, n);
+    int p = within + 4;
+    for (int i = 0; i < n; i++, p += 8) {
+      chunk.putInt(p, indices[i]);
+      chunk.putInt(p + 4, counts[i]);
+    }
+    long offset = end;
+    end += bytes;
+    return offset;
+  }
+
+  /**
+   * @param offset The offset of a record
+   * @return The number of contexts in it
+   */
+  public int size(long offset) {
+    return chunks.get((int) (offset / CHUNK)).getInt((int) (offset % CHUNK));
+  }
+
+  /**
+   * Reads a record back.
+   * @param offset The offset of the record
+   * @param indices Receives the context indices, at least size(offset) long
+   * @param counts Receives their counts, at least size(offset) long
+   * @return The number of contexts read
+   */
+  public int read(long offset, int[] indices, int[] counts) {
+    MappedByteBuffer chunk = chunks.get((int) (offset / CHUNK));
+    int within = (int) (offset % CHUNK);
+    int n = chunk.getInt(within);
+    int p = within + 4;
+    for (int i = 0; i < n; i++, p += 8) {
+      indices[i] = chunk.getInt(p);
+      counts[i] = chunk.getInt(p + 4);
+    }
+    return n;
+  }
+
+  /**
+   * Marks a record as garbage.
+   * @param offset The offset of the record
+   */
+  public void free(long offset) {
+    garbage += recordBytes(size(offset));
+  }
+
+  /**
+   * @return The bytes written to the file, garbage included
+   */
+  public long fileBytes() { return end; }
+
+  /**
+   * @return The bytes of the records no longer in use
+   */
+  public long garbageBytes() { return garbage; }
+
+  /**
+   * @return Whether enough of the file is garbage for copying the live records out to pay
+   */
+  public boolean needsCompaction() {
+    return end > CHUNK && garbage > end / 2;
+  }
+
+  @Override
+  public void close() throws IOException {
+    chunks.clear(); // The mappings go away once collected
+    channel.close();
+    raf.close();
+    file.delete();
+  }
+
+  @Override
+  public String toString() {
+    return file.getPath();
+  }
+}
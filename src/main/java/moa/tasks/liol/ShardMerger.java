@@ -0,0 +1,190 @@
+package moa.tasks.liol;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.PriorityQueue;
+
+/**
+ * <h1>Merges matrix shards built from slices of a corpus into one</h1>
+ *
+ * The shards' rows are sorted by word, so they are merged like the runs of an external sort: one
+ * row per shard is held in memory, the rows of a word are summed and written out, and only the
+ * context index and the marginals are kept whole. Inputs much larger than the heap are fine.
+ *
+ * Counts and marginals (tokens seen, lines processed, bin counts) are summed. The merged context
+ * index is the one a single matrix would have built reading the slices in the order given: first
+ * come, first indexed. A context that doesn't make it into the merged index is counted as unk. A
+ * row's tweet count is the largest of its shards', as a word is counted once per matrix.
+ *
+ * Usage: ShardMerger [Output] [Shard1] [Shard2] ...
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class ShardMerger {
+
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println("Usage: [Output][Shard1][Shard2]...");
+      System.exit(1);
+    }
+    File[] inputs = new File[args.length - 1];
+    for (int i = 1; i < args.length; i++) {
+      inputs[i - 1] = new File(args[i]);
+    }
+    try {
+      merge(inputs, new File(args[0]));
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Merges shards into one.
+   * @param inputs The shards, in the order of their slices of the corpus
+   * @param output The merged shard
+   * @throws IOException If a shard cannot be read, the shards don't match or the output cannot be
+   *                     written
+   */
+  public static void merge(File[] inputs, File output) throws IOException {
+    long start = System.nanoTime();
+    MatrixShard.Reader[] readers = new MatrixShard.Reader[inputs.length];
+    try {
+      MatrixShard.Header[] headers = new MatrixShard.Header[inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+        readers[i] = new MatrixShard.Reader(inputs[i]);
+        headers[i] = readers[i].getHeader();
+        if (headers[i].contextSize != headers[0].contextSize ||
+            headers[i].isHashing != headers[0].isHashing) {
+          throw new IOException(inputs[i] + " was built with a different context size or sketching "
+              + "method than " + inputs[0]);
+        }
+        if (headers[i].isPPMI != headers[0].isPPMI) {
+          System.err.println("Warning: " + inputs[i] + " was built with a different weighting "
+              + "method than " + inputs[0] + ", counts are merged anyway");
+        }
+      }
+      MatrixShard.Header merged = mergeHeaders(headers);
+
+      // Every context of a row is renamed to its merged index entry, unk if it has none
+      Object2IntOpenHashMap<String> index = null;
+      if (!merged.isHashing) {
+        index = new Object2IntOpenHashMap<>();
+        index.defaultReturnValue(-1);
+        for (int i = 0; i < merged.contextWords.length; i++) {
+          index.put(merged.contextWords[i], i);
+        }
+      }
+
+      PriorityQueue<Cursor> queue = new PriorityQueue<>(inputs.length);
+      for (MatrixShard.Reader reader : readers) {
+        Cursor c = new Cursor(reader);
+        if (c.advance()) {
+          queue.add(c);
+        }
+      }
+
+      long rows = 0;
+      Object2IntOpenHashMap<String> counts = new Object2IntOpenHashMap<>();
+      ObjectArrayList<Cursor> same = new ObjectArrayList<>();
+      File tmp = MatrixShard.temporaryFor(output);
+      try (MatrixShard.Writer writer = new MatrixShard.Writer(tmp, merged)) {
+        while (!queue.isEmpty()) {
+          // Every shard's row of the smallest word
+          String word = queue.peek().row.word;
+          same.clear();
+          while (!queue.isEmpty() && queue.peek().row.word.equals(word)) {
+            same.add(queue.poll());
+          }
+
+          counts.clear();
+          int numTweets = 0;
+          for (Cursor c : same) {
+            MatrixShard.Row row = c.row;
+            numTweets = Math.max(numTweets, row.numTweets);
+            for (int i = 0; i < row.keys.length; i++) {
+              String key = (index == null || index.getInt(row.keys[i]) >= 0) ? row.keys[i] : "unk";
+              // Saturate rather than wrap around on a count that no longer fits
+              counts.put(key, (int) Math.min(Integer.MAX_VALUE, (long) counts.getInt(key) + row.counts[i]));
+            }
+            if (c.advance()) {
+              queue.add(c);
+            }
+          }
+
+          String[] keys = new String[counts.size()];
+          int[] values = new int[keys.length];
+          int n = 0;
+          ObjectIterator<Object2IntMap.Entry<String>> it = counts.object2IntEntrySet().fastIterator();
+          while (it.hasNext()) {
+            Object2IntMap.Entry<String> e = it.next();
+            keys[n] = e.getKey();
+            values[n] = e.getIntValue();
+            n++;
+          }
+          writer.write(word, numTweets, keys, values, n);
+          rows++;
+        }
+      }
+      MatrixShard.moveIntoPlace(tmp, output);
+      System.err.println("Merged " + inputs.length + " shards into " + rows + " rows and "
+          + merged.processedInstances + " lines in " + (System.nanoTime() - start) / 1000000 + " ms");
+    } finally {
+      for (MatrixShard.Reader reader : readers) {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sums the marginals and reconciles the context indices of the shards.
+   */
+  private static MatrixShard.Header mergeHeaders(MatrixShard.Header[] headers) {
+    MatrixShard.Header first = headers[0];
+    long tokensSeen = 0;
+    long processedInstances = 0;
+    long[] binCounts = first.isHashing ? new long[first.contextSize] : null;
+    for (MatrixShard.Header h : headers) {
+      tokensSeen += h.tokensSeen;
+      processedInstances += h.processedInstances;
+      if (binCounts != null) {
+        for (int i = 0; i < binCounts.length; i++) {
+          binCounts[i] += h.binCounts[i];
+        }
+      }
+    }
+    String[] contextWords = first.isHashing ? null : MatrixShard.mergeContextWords(headers);
+    return new MatrixShard.Header(first.contextSize, first.isHashing, first.isPPMI, tokensSeen,
+        processedInstances, binCounts, contextWords);
+  }
+
+  /**
+   * A shard and its current row, ordered by the row's word.
+   */
+  private static class Cursor implements Comparable<Cursor> {
+    final MatrixShard.Reader reader;
+    MatrixShard.Row row;
+
+    Cursor(MatrixShard.Reader reader) {
+      this.reader = reader;
+    }
+
+    boolean advance() throws IOException {
+      row = reader.next();
+      return row != null;
+    }
+
+    @Override
+    public int compareTo(Cursor o) {
+      return row.word.compareTo(o.row.word);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package moa.tasks.liol;
+
+/**
+ * <h1>A random-hyperplane (SimHash) LSH index over the word rows</h1>
+ *
+ * Every row keeps one integer accumulator per hyperplane holding the dot product of its counts
+ * with that hyperplane. The hyperplane components are +1/-1 and are derived from a hash of the
+ * context word, so nothing of size contextSize is ever stored and a count increment only costs one
+ * hash and one add per hyperplane. The sign bits of the accumulators form the row's signature,
+ * which is split into bands. Words sharing a band value with the query are the candidates for a
+ * nearest-neighbour query. The signatures are frozen with the rows of a snapshot, which finds the
+ * candidates by comparing them, so there are no buckets to keep up to date as the counts change.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class SimHashIndex {
+
+  private final int numTables;
+  private final int bitsPerTable;
+  private final long seed;
+
+  /**
+   * @param numTables The number of bands the signature is split into
+   * @param bitsPerTable The number of signature bits in each band
+   * @param seed The seed the hyperplanes are derived from
+   */
+  public SimHashIndex(int numTables, int bitsPerTable, long seed) {
+    if (numTables < 1 || bitsPerTable < 1 || bitsPerTable > 32 || numTables * bitsPerTable > 64) {
+      throw new IllegalArgumentException("Need 1 to 32 bits per table and at most 64 bits in total");
+    }
+    this.numTables = numTables;
+    this.bitsPerTable = bitsPerTable;
+    this.seed = seed;
+  }
+
+  /**
+   * @return The number of hyperplanes, i.e. the length of a row's accumulator array
+   */
+  public int numProjections() {
+    return numTables * bitsPerTable;
+  }
+
+  /**
+   * Adds delta times the hyperplane components of the context word to the accumulators.
+   * @param projection The row's accumulators
+   * @param contextWord The context word whose count changed
+   * @param delta The change in the count
+   */
+  public void accumulate(int[] projection, String contextWord, int delta) {
+    long signs = mix(contextWord.hashCode() ^ seed);
+    for (int b = 0; b < projection.length; b++) {
+      projection[b] += ((signs >>> b) & 1L) != 0 ? delta : -delta;
+    }
+  }
+
+  /**
+   * @param projection The row's accumulators
+   * @return The signature, one bit per hyperplane the row lies on the positive side of
+   */
+  public long signature(int[] projection) {
+    long sig = 0L;
+    for (int b = 0; b < projection.length; b++) {
+      if (projection[b] > 0) {
+        sig |= 1L << b;
+      }
+    }
+    return sig;
+  }
+
+  /**
+   * Tells whether two signatures share a band, that is whether either is a candidate of the
+   * other. Reads nothing but the band layout, so any thread may call it.
+   * @param first A signature
+   * @param second Another signature
+   * @return Whether at least one band is equal
+   */
+  public boolean shareBand(long first, long second) {
+    for (int t = 0; t < numTables; t++) {
+      if (band(first, t) == band(second, t)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int band(long signature, int table) {
+    return (int) ((signature >>> (table * bitsPerTable)) & ((1L << bitsPerTable) - 1));
+  }
+
+  /**
+   * The SplitMix64 finalizer, spreads the bits of a hash over the whole long.
+   * @param z The value to mix
+   * @return The mixed value
+   */
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,54 @@
+package moa.tasks.liol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads lines from a socket relay, until the relay closes the connection.
+ * When the consumer falls behind the socket is simply not read, so TCP flow control pushes back on
+ * the relay.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class SocketSource extends ReadAheadSource {
+  private final String host;
+  private final int port;
+  private volatile Socket socket; // Opened on the reader thread, closed from the consumer's
+
+  public SocketSource(String host, int port, int batchSize, int readAhead) {
+    super(batchSize, readAhead);
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  protected BufferedReader open() throws IOException {
+    socket = new Socket(host, port);
+    if (isClosed()) {
+      socket.close(); // close() came before there was a socket to close
+    }
+    return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8),
+        1 << 16);
+  }
+
+  @Override
+  protected String describe() {
+    return host + ":" + port;
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    try {
+      if (socket != null) {
+        socket.close(); // Unblocks a reader thread waiting on the socket
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package moa.tasks.liol;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the lines piped into standard input.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class StdinSource extends ReadAheadSource {
+
+  public StdinSource(int batchSize, int readAhead) {
+    super(batchSize, readAhead);
+  }
+
+  @Override
+  protected BufferedReader open() {
+    return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16);
+  }
+
+  @Override
+  protected String describe() {
+    return "stdin";
+  }
+}
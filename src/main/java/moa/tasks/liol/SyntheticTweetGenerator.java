@@ -0,0 +1,241 @@
+package moa.tasks.liol;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <h1>Generates a reproducible stream of tweet-like lines and a matching seed lexicon</h1>
+ *
+ * Words are drawn from a Zipfian distribution over a synthetic vocabulary, so the row sizes and
+ * the hash map behaviour of the matrix look like those of real text. Every tweet has a hidden
+ * polarity and some of its words are drawn from the lexicon words of that polarity, so the
+ * classifier has something to learn. Hashtags, mentions and URLs are mixed in at configurable
+ * rates. The same seed and settings always give the same lines and lexicons.
+ *
+ * Usage: SyntheticTweetGenerator [OutputDir][Lines][VocabSize][Seed]
+ * writes tweets.txt, lexicon-train.txt and lexicon-test.txt to the output directory.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class SyntheticTweetGenerator {
+
+  private static final String[] SYLLABLES = {
+      "ba", "ke", "li", "mo", "nu", "ra", "se", "ti", "vo", "zu", "da", "fe", "gi", "ho", "ju",
+      "pa", "qe", "wi", "xo", "yu", "ca", "me", "ni", "po", "su", "ta"
+  };
+
+  private final long seed;
+  private int vocabSize = 50000;
+  private double zipfExponent = 1.0;
+  private int minLength = 5;
+  private int maxLength = 25;
+  private double hashtagRate = 0.05;
+  private double mentionRate = 0.05;
+  private double urlRate = 0.02;
+  private int users = 10000;
+  private int lexiconSize = 2000;
+  private double polarRate = 0.15;
+  private double testFraction = 0.2;
+
+  // Built lazily from the settings
+  private String[] words;
+  private double[] wordCdf;
+  private int[] positive;
+  private int[] negative;
+  private double[] polarCdf;
+  private double[] userCdf;
+  private Random random;
+
+  /**
+   * @param seed The seed every random choice is derived from
+   */
+  public SyntheticTweetGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  public SyntheticTweetGenerator setVocabSize(int vocabSize) { this.vocabSize = vocabSize; words = null; return this; }
+  public SyntheticTweetGenerator setZipfExponent(double s) { this.zipfExponent = s; words = null; return this; }
+  public SyntheticTweetGenerator setLength(int min, int max) { this.minLength = min; this.maxLength = max; return this; }
+  public SyntheticTweetGenerator setHashtagRate(double rate) { this.hashtagRate = rate; return this; }
+  public SyntheticTweetGenerator setMentionRate(double rate) { this.mentionRate = rate; return this; }
+  public SyntheticTweetGenerator setUrlRate(double rate) { this.urlRate = rate; return this; }
+  public SyntheticTweetGenerator setUsers(int users) { this.users = users; words = null; return this; }
+  public SyntheticTweetGenerator setLexiconSize(int size) { this.lexiconSize = size; words = null; return this; }
+  public SyntheticTweetGenerator setPolarRate(double rate) { this.polarRate = rate; return this; }
+  public SyntheticTweetGenerator setTestFraction(double fraction) { this.testFraction = fraction; return this; }
+
+  /**
+   * Writes the tweets, gzipped if the file name ends in .gz.
+   * @param file The output file
+   * @param lines The number of tweets
+   * @return The number of tokens written, not counting spaces
+   * @throws IOException If the file cannot be written
+   */
+  public long writeTweets(File file, int lines) throws IOException {
+    prepare();
+    random = new Random(seed);
+    long tokens = 0;
+    OutputStream out = new FileOutputStream(file);
+    if (file.getName().endsWith(".gz")) {
+      out = new GZIPOutputStream(out, 1 << 16);
+    }
+    StringBuilder sb = new StringBuilder();
+    try (Writer writer = new BufferedWriter(
+        new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16)) {
+      for (int i = 0; i < lines; i++) {
+        sb.setLength(0);
+        tokens += nextTweet(sb);
+        writer.write(sb.append('\n').toString());
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Writes the lexicon words as "word TAB 1" or "word TAB -1", split into a training and a test
+   * part like the seed lexicon files.
+   * @param train The training lexicon
+   * @param test The test lexicon
+   * @throws IOException If a file cannot be written
+   */
+  public void writeLexicons(File train, File test) throws IOException {
+    prepare();
+    Random shuffle = new Random(seed ^ 0x5DEECE66DL);
+    int n = positive.length + negative.length;
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    for (int i = n - 1; i > 0; i--) {
+      int j = shuffle.nextInt(i + 1);
+      int t = order[i];
+      order[i] = order[j];
+      order[j] = t;
+    }
+    int testSize = (int) Math.round(n * testFraction);
+    try (Writer trainWriter = new BufferedWriter(
+             new OutputStreamWriter(new FileOutputStream(train), StandardCharsets.UTF_8));
+         Writer testWriter = new BufferedWriter(
+             new OutputStreamWriter(new FileOutputStream(test), StandardCharsets.UTF_8))) {
+      for (int i = 0; i < n; i++) {
+        int k = order[i];
+        String line = (k < positive.length) ? words[positive[k]] + "\t1\n"
+            : words[negative[k - positive.length]] + "\t-1\n";
+        (i < testSize ? testWriter : trainWriter).write(line);
+      }
+    }
+  }
+
+  /**
+   * Appends one tweet.
+   * @return The number of tokens in it
+   */
+  private int nextTweet(StringBuilder sb) {
+    int length = minLength + random.nextInt(maxLength - minLength + 1);
+    int[] pool = random.nextBoolean() ? positive : negative;
+    for (int t = 0; t < length; t++) {
+      if (t > 0) {
+        sb.append(' ');
+      }
+      double r = random.nextDouble();
+      if (r < hashtagRate) {
+        sb.append('#').append(words[sample(wordCdf)]);
+      } else if ((r -= hashtagRate) < mentionRate) {
+        sb.append("@user").append(sample(userCdf));
+      } else if ((r -= mentionRate) < urlRate) {
+        sb.append("http://t.co/").append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+      } else if ((r -= urlRate) < polarRate) {
+        sb.append(words[pool[sample(polarCdf)]]);
+      } else {
+        sb.append(words[sample(wordCdf)]);
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @return A rank drawn from the cumulative distribution
+   */
+  private int sample(double[] cdf) {
+    int i = Arrays.binarySearch(cdf, random.nextDouble() * cdf[cdf.length - 1]);
+    return Math.min(cdf.length - 1, (i >= 0) ? i : -i - 1);
+  }
+
+  private void prepare() {
+    if (words != null) {
+      return;
+    }
+    if (2 * lexiconSize + 50 > vocabSize) {
+      throw new IllegalArgumentException("The lexicon cannot take more than half the vocabulary");
+    }
+    words = new String[vocabSize];
+    for (int i = 0; i < vocabSize; i++) {
+      words[i] = spell(i);
+    }
+    wordCdf = zipf(vocabSize);
+    userCdf = zipf(users);
+    polarCdf = zipf(lexiconSize / 2);
+
+    // Lexicon words are spread over the ranks, skipping the most frequent ones like real
+    // sentiment words, alternating between the two polarities
+    positive = new int[lexiconSize / 2];
+    negative = new int[lexiconSize / 2];
+    int step = Math.max(2, (vocabSize - 50) / lexiconSize);
+    for (int i = 0; i < lexiconSize / 2; i++) {
+      positive[i] = 50 + (2 * i) * step;
+      negative[i] = 50 + (2 * i + 1) * step;
+    }
+  }
+
+  private double[] zipf(int n) {
+    double[] cdf = new double[n];
+    double total = 0;
+    for (int i = 0; i < n; i++) {
+      total += 1.0 / Math.pow(i + 1, zipfExponent);
+      cdf[i] = total;
+    }
+    return cdf;
+  }
+
+  /**
+   * @return A pronounceable, unique word for a rank
+   */
+  private static String spell(int rank) {
+    StringBuilder sb = new StringBuilder();
+    int r = rank;
+    do {
+      sb.append(SYLLABLES[r % SYLLABLES.length]);
+      r /= SYLLABLES.length;
+    } while (r > 0);
+    return sb.toString();
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 4) {
+      System.err.println("Usage: [OutputDir][Lines][VocabSize][Seed]");
+      System.exit(1);
+    }
+    File dir = new File(args[0]);
+    dir.mkdirs();
+    SyntheticTweetGenerator generator = new SyntheticTweetGenerator(Long.parseLong(args[3]))
+        .setVocabSize(Integer.parseInt(args[2]));
+    try {
+      long tokens = generator.writeTweets(new File(dir, "tweets.txt"), Integer.parseInt(args[1]));
+      generator.writeLexicons(new File(dir, "lexicon-train.txt"), new File(dir, "lexicon-test.txt"));
+      System.err.println("Wrote " + args[1] + " tweets with " + tokens + " tokens to " + dir);
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
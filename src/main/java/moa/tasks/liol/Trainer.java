@@ -5,6 +5,7 @@ import com.yahoo.labs.samoa.instances.InstancesHeader;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import moa.classifiers.Classifier;
 import moa.classifiers.functions.SGD;
+import moa.core.DoubleVector;
 import moa.core.InstanceExample;
 import moa.core.Measurement;
 import moa.core.TimingUtils;
@@ -14,13 +15,12 @@ import moa.evaluation.WindowClassificationPerformanceEvaluator;
 import moa.evaluation.preview.LearningCurve;
 import moa.tasks.TaskMonitor;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
 import java.util.*;
 
-import org.knowm.xchart.*;
-import org.knowm.xchart.style.Styler;
-
 import com.yahoo.labs.samoa.instances.Attribute;
 import com.yahoo.labs.samoa.instances.InstanceImpl;
 import com.yahoo.labs.samoa.instances.Instances;
@@ -38,9 +38,27 @@ public class Trainer {
   protected InstancesHeader dataset;
   private int H;
   protected Random random;
-  protected double W[][];
+  // Swapped as a whole when the sketch is refreshed, readers take one reference and keep it
+  private volatile Projection projection;
 
   int percentRandomProjection = 10;
+  private int projectionSize;
+
+  // The sketch's cost grows with the cube of its rows, so its size is bounded
+  static final int MAX_SKETCH_DIRECTIONS = 100;
+  static final int MAX_SKETCH_ROWS = 4 * MAX_SKETCH_DIRECTIONS;
+
+  // Frequent Directions mode, null when the fixed random projection is used
+  private FrequentDirections sketch;
+  private FrequentDirections.Basis basis;
+  private int sketchRows;
+  private int refreshInterval;
+  private int sampleEvery;
+  private long rowsEmitted;
+  private long basisRefreshes;
+  private long warmupSeedInstances; // Seed word instances not learnt before the first basis
+  private boolean singlePrecision;
+  private long lexiconBytes;
 
   private Classifier model;
   private int samplesSeen;
@@ -65,30 +83,23 @@ public class Trainer {
   private TaskMonitor taskMonitor;
   private double lastAcc = 0.00;
 
-    final XYChart chart;
-    final SwingWrapper<XYChart> sw;
-
-    double[] chartY;
-    int chartIndex = 0;
-    Map<String,ArrayList<Double>> chartData;
-    ArrayList<Double> initList;
+  private Long seed; // null draws the projection from an unseeded generator
+  private boolean referenceMode;
+  private TrajectoryRecorder trajectories; // null unless a watch list is recorded
+  private long instancesLearnt; // Every instance offered to learn(), the x axis of the trajectories
+  private volatile Published published; // The latest copy of the model and metrics, null before the first
+  private volatile boolean publicationRequested;
 
   public Trainer(long startTime, LearningCurve learningCurve, TaskMonitor taskMonitor) {
     this.evaluateStartTime = startTime;
     this.wordPolarityMap = new Object2ObjectOpenHashMap<>();
     this.trainTestMap = new Object2ObjectOpenHashMap<>();
-    this.model = new SGD();
+    this.model = new BasisSGD();
     this.taskMonitor = taskMonitor;
     this.learningCurve = learningCurve;
     this.displayGraph = false;
 
 
-    // Chart Vars
-    this.chartY = new double[100];
-    chartData = new HashMap<>();
-    initList = new ArrayList<>();
-    initList.add(0.0);
-
 //    ((SGD)model).resetLearningImpl();
 //    ((SGD)model).setLossFunction(1); // hinge/log/squared
     evaluator = new BasicClassificationPerformanceEvaluator();
@@ -97,26 +108,13 @@ public class Trainer {
 
     df = new DecimalFormat("#.####");
     df.setRoundingMode(RoundingMode.CEILING);
-
-
-    // Initialize Chart
-    chart = new XYChartBuilder().width(800).height(600).xAxisTitle("Num of Samples").yAxisTitle("Sentiment").build();
-    chart.getStyler().setLegendPosition(Styler.LegendPosition.InsideNE);
-    chart.getStyler().setDefaultSeriesRenderStyle(XYSeries.XYSeriesRenderStyle.Line);
-    chart.getStyler().setYAxisLabelAlignment(Styler.TextAlignment.Left);
-    chart.getStyler().setPlotMargin(0);
-    chart.getStyler().setPlotContentSize(.95);
-    chart.getStyler().setMarkerSize(0);
-    // Display
-    sw = new SwingWrapper<XYChart>(chart);
-//    sw.displayChart();
   }
   
   /**
    * Sets up the known words for the system.
    * @param seedlex The seed lexicon as an input stream.
    */
-  public void initialize(InputObject seedLexTrain, InputObject seedLexTest) {
+  public void initialize(InputSource seedLexTrain, InputSource seedLexTest) {
     int processed = 0; // Could be a more sophisticated way of doing this.
     String line;
     String line2;
@@ -163,6 +161,13 @@ public class Trainer {
         processed++;
 
     }
+
+    // The words are shared by both maps, the values are interned constants
+    lexiconBytes = MemoryBudget.openHashBytes(wordPolarityMap.size(), MemoryBudget.REF, MemoryBudget.REF)
+        + MemoryBudget.openHashBytes(trainTestMap.size(), MemoryBudget.REF, MemoryBudget.REF);
+    for (String word : wordPolarityMap.keySet()) {
+      lexiconBytes += MemoryBudget.stringBytes(word);
+    }
 //    ((SGD)model).prepareForUse();
   }
   
@@ -175,6 +180,201 @@ public class Trainer {
 
 
   }
+
+  /**
+   * @return The header of the word-context instances
+   */
+  public InstancesHeader getHeader() {
+    return header;
+  }
+
+  /**
+   * Sets the number of features the word-context vectors are reduced to.
+   * @param h The number of features, 0 for percentRandomProjection percent of the attributes
+   */
+  public void setProjectionSize(int h) {
+    this.projectionSize = h;
+  }
+
+  /**
+   * Stores the projection in single precision and projects with the float kernels.
+   * @param singlePrecision true for float32, false for double
+   */
+  public void setSinglePrecision(boolean singlePrecision) {
+    this.singlePrecision = singlePrecision;
+  }
+
+  /**
+   * Reduces the word-context vectors onto the top directions of a Frequent Directions sketch of
+   * the emitted rows instead of a random projection. Nothing is learnt until the sketch holds
+   * enough directions for a first basis, the seed word instances skipped until then are counted.
+   * The basis is computed when the sketch first fills up and, once there is one, at the refresh
+   * interval. A refresh maps the weights of the model onto the new directions, so a row in the
+   * span of both bases keeps its score and what was learnt carries over.
+   *
+   * The number of directions is at most MAX_SKETCH_DIRECTIONS and defaults to the lesser of that
+   * and percentRandomProjection percent of the attributes, the sketch rows at most MAX_SKETCH_ROWS.
+   * @param sketchRows The number of sketch rows, more than the projection size, 0 for twice it
+   * @param refreshInterval The number of sketched rows between two refreshes of the basis
+   * @param sampleEvery Only every this many emitted rows is added to the sketch
+   */
+  public void useFrequentDirections(int sketchRows, int refreshInterval, int sampleEvery) {
+    this.sketchRows = sketchRows;
+    this.refreshInterval = refreshInterval;
+    this.sampleEvery = sampleEvery;
+  }
+
+  /**
+   * @param word A word
+   * @return Whether the word is in one of the seed lexicons
+   */
+  public boolean isSeedWord(String word) {
+    return wordPolarityMap.containsKey(word);
+  }
+
+  /**
+   * @param word A word
+   * @return The class value of the word in the seed lexicons, 1 for positive and 0 for negative,
+   * or -1 if it is in neither
+   */
+  public int polarity(String word) {
+    String p = wordPolarityMap.get(word);
+    return (p == null) ? -1 : p.equals("positive") ? 1 : 0;
+  }
+
+  /**
+   * Not synchronized, it is called on every line and an estimate lagging the learner thread by
+   * a little is good enough.
+   * @return An estimate of the bytes held by the projection, the sketch, the model and the seed
+   * lexicons
+   */
+  public long sizeInBytes() {
+    long bytes = 0;
+    Projection p = projection;
+    if (p != null) {
+      bytes += p.sizeInBytes();
+    }
+    if (basis != null && basis != p) {
+      bytes += basis.sizeInBytes(); // The double basis the float projection was rounded from
+    }
+    if (sketch != null) {
+      bytes += sketch.sizeInBytes();
+    }
+    if (dataset != null) {
+      // One weight per feature plus the bias
+      bytes += MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 8L * (H + 1));
+    }
+    return bytes + lexiconBytes;
+  }
+
+  /**
+   * Copies the current model and projection so they can be used by other threads while this one
+   * keeps learning. Synchronized with learn(), which may run on a learner thread.
+   * @return The scorer, or null if there is nothing to score with yet
+   */
+  public synchronized Scorer scorer() {
+    Projection p = projection;
+    return (p == null) ? null : new Scorer(model.copy(), p, dataset);
+  }
+
+  /**
+   * Asks for a copy of the model and the metrics to be published the next time an instance is
+   * offered to learn(), by whichever thread learns. Never blocks, so the matrix can ask while a
+   * learner thread holds the trainer, and picks the copy up later through published().
+   */
+  public void requestPublication() {
+    publicationRequested = true;
+  }
+
+  /**
+   * Publishes a copy of the model and the metrics straight away. Synchronized with learn(), so
+   * only to be called by the thread that learns, or once the learner thread is done.
+   */
+  public synchronized void publish() {
+    publicationRequested = false;
+    Projection p = projection;
+    published = new Published((p == null) ? null : new Scorer(model.copy(), p, dataset), metrics());
+  }
+
+  /**
+   * Publishes if a publication was asked for. For the thread that learns, while it has nothing
+   * to learn from.
+   */
+  public void publishIfRequested() {
+    if (publicationRequested) {
+      publish();
+    }
+  }
+
+  /**
+   * @return The latest copy of the model and the metrics, or null if none was published yet
+   */
+  public Published published() {
+    return published;
+  }
+
+  /**
+   * Draws the random projection from a generator with this seed, so that runs can be compared.
+   * @param seed The seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Projects every instance the way the trainer first did, densely and in double precision, see
+   * ReferenceProjection. The single precision and sketched projections are ignored.
+   * @param reference Whether to use the reference projection
+   */
+  public void setReferenceMode(boolean reference) {
+    this.referenceMode = reference;
+  }
+
+  /**
+   * Called with the prediction for every instance of a seed word, before the model learns from
+   * it. Does nothing, it is there for subclasses to observe the predictions.
+   * @param word The word
+   * @param projected The projected instance, with its class
+   * @param votes The class votes
+   */
+  protected void predicted(String word, Instance projected, double[] votes) {
+  }
+
+  /**
+   * Records the scores of a watch list of words every time they reach the trainer. Words outside
+   * the seed lexicons are scored for it too, which costs a prediction per watched instance.
+   * @param recorder The recorder
+   */
+  public synchronized void setTrajectoryRecorder(TrajectoryRecorder recorder) {
+    this.trajectories = recorder;
+  }
+
+  /**
+   * @param word A word
+   * @return A copy of the word's recent scores, or null if no watch list includes it
+   */
+  public synchronized TrajectoryRecorder.Trajectory trajectory(String word) {
+    return (trajectories == null) ? null : trajectories.trajectory(word);
+  }
+
+  /**
+   * Writes the trajectories of the watch list, safe to call from any thread at any time. Only
+   * the copying holds up the learner, not the writing.
+   * @param file The file, replaced if it exists
+   * @throws IOException If the file cannot be written
+   */
+  public void exportTrajectories(File file) throws IOException {
+    List<TrajectoryRecorder.Trajectory> copies;
+    int capacity;
+    synchronized (this) {
+      if (trajectories == null) {
+        return;
+      }
+      copies = trajectories.copyAll();
+      capacity = trajectories.getCapacity();
+    }
+    TrajectoryRecorder.write(file, capacity, copies);
+  }
   
   /**
    * Processes the incoming word and instance and updates, predicts or ignores them depending on
@@ -182,7 +382,20 @@ public class Trainer {
    * @param word The word to check if known
    * @param inst The instance representation of the word.
    */
-  public void learn(String word, Instance inst) {
+  public synchronized void learn(String word, Instance inst) {
+    learn(word, inst, polarity(word));
+  }
+
+  /**
+   * Learns an instance whose label is already known, as when an instance log is replayed. The
+   * label decides whether the word is a seed word and its class, the seed lexicons only whether
+   * it is a test word; a labelled word they do not split is trained on.
+   * @param word The word of the instance
+   * @param inst The instance representation of the word
+   * @param label The class value of the word, 1 for positive and 0 for negative, or -1 if it has
+   * none
+   */
+  public synchronized void learn(String word, Instance inst, int label) {
     //System.err.println(word + ": " + inst.toString());
     // If we know the word, otherwise we ignore it and assume that we haven't seen it.
     //      if(((SGD)model).getLossFunction()==0){
@@ -193,15 +406,42 @@ public class Trainer {
     //          System.out.println("Loss Function: log");
     //      }
 
+      publishIfRequested();
+      if (dataset == null) {
+        initializeRandomProjection(inst);
+      }
+      instancesLearnt++;
+      if (sketch != null) {
+        updateSketch(inst);
+        if (projection == null) {
+          if (label >= 0) {
+            warmupSeedInstances++;
+          }
+          return; // Still warming up the sketch
+        }
+      }
+
       Instance filteredInstance = filterInstance(inst);
-      if (wordPolarityMap.containsKey(word)) {
+      int watched = (trajectories != null) ? trajectories.slot(word) : -1;
+      if (label < 0) {
+        // Unknown words are not learnt from, but a watched one is scored for its trajectory
+        if (watched >= 0) {
+          trajectories.record(watched, instancesLearnt,
+              TrajectoryRecorder.score(model.getVotesForInstance(filteredInstance)));
+        }
+        return;
+      }
       
       // Assign the instance its class
-      setInstanceClass(word, filteredInstance);
+      filteredInstance.setClassValue(label);
 
       double[] prediction = model.getVotesForInstance(filteredInstance);
+      predicted(word, filteredInstance, prediction);
+      if (watched >= 0) {
+        trajectories.record(watched, instancesLearnt, TrajectoryRecorder.score(prediction));
+      }
       //System.err.println(Double.toString(prediction[0]) + " " + Double.toString(prediction[1]));
-      if (trainTestMap.get(word).equals("train")) {
+      if (!"test".equals(trainTestMap.get(word))) {
         model.trainOnInstance(filteredInstance);
       } else {
         if (Utils.maxIndex(prediction) == (int)filteredInstance.classValue()) {
@@ -236,46 +476,6 @@ public class Trainer {
 //            " FN: " + FN + "\n F1: " + df.format(getF1Score()) + "\n Precision: " +
 //            df.format(getPrecision()) + "\n Recall: " + df.format(getRecall()) + "\n Kappa: " + evaluator.getKappaStatistic());
 
-
-          //new double[]{samplesSeen}
-//          chartY[chartIndex]
-
-//          if(false &&
-//                  (trainTestMap.get(word).equals("test") && (word.equalsIgnoreCase("great"))) ||
-//                          (trainTestMap.get(word).equals("test") && (word.equalsIgnoreCase("crazy")))
-//                          ||
-//                          (trainTestMap.get(word).equals("test") && (word.equalsIgnoreCase("nice"))) ||
-//                          (trainTestMap.get(word).equals("test") && (word.equalsIgnoreCase("best"))) ||
-//                          (trainTestMap.get(word).equals("test") && (word.equalsIgnoreCase("happy")))
-
-//          ) {
-//              if(!chartData.containsKey(word)){
-//                  chartData.put(word,(ArrayList<Double>)initList.clone());
-//                  chart.addSeries(word, chartData.get(word));
-//              }
-//    //              if (chart.getSeriesMap().get(word) == null) {
-//    //                  chart.addSeries(word, chartY);
-//    //              }
-//
-//              int predIndex = Utils.maxIndex(prediction);
-//              double newVal = ((prediction[predIndex] * ((predIndex==1)?1:-1)) + (prediction[predIndex==1?0:1]*(((predIndex==1?0:1)==1)?1:-1)))/2.0;
-////              double newVal = prediction[] * (wordPolarityMap.get(word).equals("negative") ? -1 : 1);
-//    //          System.out.println("HATE + "+newVal);
-//    //              chartY[chartIndex] = newVal;
-//              chartData.get(word).add(newVal);
-//              chart.updateXYSeries(word, null, chartData.get(word), null);
-//              if((newVal < 0 && wordPolarityMap.get(word).equalsIgnoreCase("negative")) || (newVal >= 0 && wordPolarityMap.get(word).equalsIgnoreCase("positive"))){
-//                  chart.getSeriesMap().get(word).setLineColor(XChartSeriesColors.BLUE);
-//              }else {
-//                  chart.getSeriesMap().get(word).setLineColor(XChartSeriesColors.RED);
-//              }
-//    //              chartIndex = (chartIndex + 1) % 100;
-//
-//              sw.repaintChart();
-//          }
-
-
-
         if(this.learningCurve != null){
           ArrayList<Measurement> measurementsArray = new ArrayList<Measurement>();
           measurementsArray.add(new Measurement("Accuracy",this.lastAcc));
@@ -294,23 +494,6 @@ public class Trainer {
 
         queryCounter = 0;
       }
-    }
-  }
-  
-  /**
-   * Checks to see if the word is known and if it is, assigns the correct polarity to the word's
-   * instance.
-   * @param word The word to lookup
-   * @param inst The instance representation of the word
-   */
-  private void setInstanceClass(String word, Instance inst) {
-    if (wordPolarityMap.containsKey(word)) {
-      if (wordPolarityMap.get(word) == "positive") {
-        inst.setClassValue(1);
-      } else {
-        inst.setClassValue(0);
-      }
-    }
   }
   
   
@@ -336,6 +519,30 @@ public class Trainer {
 //        "% accuracy in " + time + " seconds.");
   }
   
+  /**
+   * Collects the current statistics of the classifier into a fresh map.
+   * @return The metrics by name
+   */
+  public synchronized Map<String, Double> metrics() {
+    Map<String, Double> m = new LinkedHashMap<>();
+    m.put("samplesSeen", (double) samplesSeen);
+    m.put("testSamplesSeen", (double) testSamplesSeen);
+    m.put("accuracy", 100.0D * (double) correctlyPredicted / (double) testSamplesSeen);
+    m.put("TP", (double) TP);
+    m.put("FP", (double) FP);
+    m.put("TN", (double) TN);
+    m.put("FN", (double) FN);
+    m.put("F1", getF1Score());
+    m.put("precision", getPrecision());
+    m.put("recall", getRecall());
+    m.put("kappa", evaluator.getKappaStatistic());
+    if (sketch != null) {
+      m.put("sketchWarmupSeedInstances", (double) warmupSeedInstances);
+      m.put("basisRefreshes", (double) basisRefreshes);
+    }
+    return m;
+  }
+
   /**
    * Calculates the current F1 score
    * @return the F1 score
@@ -364,18 +571,21 @@ public class Trainer {
   }
 
   private void initializeRandomProjection(Instance instance) {
-    this.random = new Random();
+    this.random = (seed != null) ? new Random(seed) : new Random();
 
     int d = instance.numAttributes() - 1; // suppose one class attribute
 
-    H = d * percentRandomProjection / 100;
-
-    // initialize ReLU features
-    W = new double[H][d];
-    for(int j = 0; j < H; j++) {
-      for(int k = 0; k < d; k++) {
-        W[j][k] = this.random.nextGaussian();
-      }
+    H = (projectionSize > 0) ? projectionSize : d * percentRandomProjection / 100;
+
+    if (referenceMode) {
+      projection = new ReferenceProjection(H, d, random);
+    } else if (refreshInterval > 0) {
+      H = Math.max(1, Math.min(H, MAX_SKETCH_DIRECTIONS));
+      int l = (sketchRows > 0) ? Math.min(Math.max(sketchRows, H + 1), MAX_SKETCH_ROWS) : 2 * H;
+      sketch = new FrequentDirections(l, d);
+    } else {
+      projection = singlePrecision ? new FloatProjection(H, d, random)
+          : new RandomProjection(H, d, random);
     }
 
     // initialize instance space
@@ -403,6 +613,39 @@ public class Trainer {
 
   }
 
+  /**
+   * Adds a sample of the emitted rows to the sketch and periodically swaps in a fresh basis.
+   * @param x The word-context instance that was emitted
+   */
+  private void updateSketch(Instance x) {
+    if (rowsEmitted++ % sampleEvery != 0) {
+      return;
+    }
+    int d = x.numAttributes() - 1;
+    int[] idx = new int[x.numValues()];
+    double[] val = new double[x.numValues()];
+    int nnz = sparseValues(x, d, idx, val);
+    if (nnz == 0) {
+      return;
+    }
+    sketch.insert(idx, val, nnz);
+
+    // Try each time the sketch fills up until the first basis exists, then refresh at the interval
+    if (projection == null ? sketch.isFull() : sketch.getRowsSeen() % refreshInterval == 0) {
+      FrequentDirections.Basis next = sketch.basis(H);
+      if (next != null) {
+        if (basis != null) {
+          // The weights belong to the old directions, w' = V_new V_old^T w keeps the scores of
+          // the rows both bases span instead of starting over
+          ((BasisSGD) model).changeBasis(next.transition(basis));
+          basisRefreshes++;
+        }
+        basis = next;
+        projection = singlePrecision ? next.toFloat() : next;
+      }
+    }
+  }
+
   public Instance filterInstance(Instance x) {
 
 
@@ -410,24 +653,121 @@ public class Trainer {
       initializeRandomProjection(x);
     }
 
+    return project(projection, dataset, x);
+  }
+
+  /**
+   * Reduces a word-context instance to the features of the learner.
+   * @param p The projection to use
+   * @param ds The header of the reduced instances
+   * @param x The word-context instance
+   * @return The reduced instance, with the class of x
+   */
+  private static Instance project(Projection p, InstancesHeader ds, Instance x) {
+    int H = p.size();
     double z_[] = new double[H+1];
 
     int d = x.numAttributes() - 1; // suppose one class attribute (at the end)
 
-    for(int k = 0; k < H; k++) {
-      // for each hidden unit ...
-      double a_k = 0.; 								// k-th activation (dot product)
-      for(int j = 0; j < d; j++) {
-        a_k += (x.value(j) * W[k][j]);
-      }
-      z_[k] = (a_k > 0. ? a_k : 0.);				  // <------- can change threshold here
-    }
+    // Only the non-zero attributes contribute, so walk the sparse values instead of all d
+    int[] idx = new int[x.numValues()];
+    double[] val = new double[x.numValues()];
+    int nnz = sparseValues(x, d, idx, val);
+
+    p.project(idx, val, nnz, z_);
     z_[H] = x.classValue();
 
     Instance z = new InstanceImpl(x.weight(),z_);
-    z.setDataset(dataset);
+    z.setDataset(ds);
 
     return z;
   }
 
-}
\ No newline at end of file
+  /**
+   * Collects the non-zero attributes of an instance, leaving out the class.
+   * @return The number of values collected
+   */
+  private static int sparseValues(Instance x, int d, int[] idx, double[] val) {
+    int nnz = 0;
+    for(int i = 0; i < x.numValues(); i++) {
+      if (x.index(i) < d) {
+        idx[nnz] = x.index(i);
+        val[nnz] = x.valueSparse(i);
+        nnz++;
+      }
+    }
+    return nnz;
+  }
+
+  /**
+   * A copy of the model together with the projection it was trained on, safe to use from other
+   * threads while the trainer keeps learning and refreshing its projection.
+   */
+  /**
+   * MOA's SGD, whose weights can follow a change of the projection basis.
+   */
+  static class BasisSGD extends SGD {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Replaces the weights w of the projected features by M w, leaving the bias and the
+     * learning schedule as they are.
+     * @param transition M, the coordinates of each new direction in the old basis
+     */
+    void changeBasis(double[][] transition) {
+      if (m_weights == null) {
+        return; // Nothing learnt yet
+      }
+      DoubleVector mapped = new DoubleVector();
+      for (int j = 0; j < transition.length; j++) {
+        double w = 0;
+        for (int k = 0; k < transition[j].length; k++) {
+          w += transition[j][k] * m_weights.getValue(k);
+        }
+        mapped.setValue(j, w);
+      }
+      m_weights = mapped;
+    }
+  }
+
+  public static class Scorer {
+    private final Classifier model;
+    private final Projection projection;
+    private final InstancesHeader dataset;
+
+    Scorer(Classifier model, Projection projection, InstancesHeader dataset) {
+      this.model = model;
+      this.projection = projection;
+      this.dataset = dataset;
+    }
+
+    /**
+     * @param inst The word-context instance
+     * @return The class votes
+     */
+    public double[] votes(Instance inst) {
+      return model.getVotesForInstance(project(projection, dataset, inst));
+    }
+  }
+
+  /**
+   * A copy of the model and the metrics taken together by the thread that learns, for threads
+   * that must not wait for it.
+   */
+  public static class Published {
+    private final Scorer scorer;
+    private final Map<String, Double> metrics;
+
+    Published(Scorer scorer, Map<String, Double> metrics) {
+      this.scorer = scorer;
+      this.metrics = Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * @return The copy of the model, or null if there was nothing to score with yet
+     */
+    public Scorer getScorer() { return scorer; }
+    public Map<String, Double> getMetrics() { return metrics; }
+  }
+
+}
@@ -0,0 +1,296 @@
+package moa.tasks.liol;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>Records how the predicted polarity of a watch list of words evolves</h1>
+ *
+ * Every time a watched word reaches the trainer its score, the difference of the positive and
+ * negative votes over their sum, from -1 to 1, is recorded together with the number of instances
+ * the trainer had learnt from by then. Each word keeps its last capacity samples in a slice of
+ * two preallocated primitive arrays used as a ring, so recording neither boxes nor allocates.
+ *
+ * The trajectories are exported on demand to a compact binary file:
+ * <ul>
+ *   <li>a header: magic, version, capacity and the number of words</li>
+ *   <li>per word: the word, the number of samples ever recorded, the number kept and the kept
+ *       samples oldest first, each the instance number as a variable length delta to the
+ *       previous one and the score as a float</li>
+ * </ul>
+ * main() prints such a file as CSV for plotting.
+ *
+ * Not thread safe, the trainer records and exports under its own lock.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class TrajectoryRecorder {
+
+  private static final int MAGIC = 0x4c494f54; // "LIOT"
+  private static final int VERSION = 1;
+
+  private final String[] words;
+  private final Object2IntOpenHashMap<String> slots;
+  private final int capacity;
+  private final long[] instances; // capacity samples per word, word after word
+  private final float[] scores;
+  private final long[] recorded; // Samples ever recorded per word, the ring's write position
+
+  /**
+   * @param watchList The words to watch
+   * @param capacity The number of samples kept per word
+   */
+  public TrajectoryRecorder(Collection<String> watchList, int capacity) {
+    this.slots = new Object2IntOpenHashMap<>(watchList.size());
+    slots.defaultReturnValue(-1);
+    List<String> unique = new ArrayList<>();
+    for (String w : watchList) {
+      if (!slots.containsKey(w)) {
+        slots.put(w, unique.size());
+        unique.add(w);
+      }
+    }
+    this.words = unique.toArray(new String[0]);
+    this.capacity = capacity;
+    this.instances = new long[Math.multiplyExact(words.length, capacity)];
+    this.scores = new float[instances.length];
+    this.recorded = new long[words.length];
+  }
+
+  /**
+   * Reads a watch list of one word per line, lower cased like the matrix' tokens. Blank lines
+   * are skipped.
+   * @param file The watch list
+   * @param capacity The number of samples kept per word
+   * @return The recorder
+   * @throws IOException If the file cannot be read
+   */
+  public static TrajectoryRecorder fromFile(File file, int capacity) throws IOException {
+    List<String> watchList = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim().toLowerCase();
+        if (!line.isEmpty()) {
+          watchList.add(line);
+        }
+      }
+    }
+    return new TrajectoryRecorder(watchList, capacity);
+  }
+
+  /**
+   * @param word A word
+   * @return The word's slot, or -1 if it is not watched
+   */
+  public int slot(String word) {
+    return slots.getInt(word);
+  }
+
+  /**
+   * @param votes The class votes for a word
+   * @return Its score, from -1 (negative) to 1 (positive)
+   */
+  public static float score(double[] votes) {
+    double negative = (votes.length > 0) ? votes[0] : 0;
+    double positive = (votes.length > 1) ? votes[1] : 0;
+    double total = negative + positive;
+    return (total > 0) ? (float) ((positive - negative) / total) : 0f;
+  }
+
+  /**
+   * @param slot The slot of a watched word
+   * @param instance The number of instances the trainer has learnt from
+   * @param score The word's score
+   */
+  public void record(int slot, long instance, float score) {
+    int i = slot * capacity + (int) (recorded[slot] % capacity);
+    instances[i] = instance;
+    scores[i] = score;
+    recorded[slot]++;
+  }
+
+  public int numWords() { return words.length; }
+  public int getCapacity() { return capacity; }
+
+  /**
+   * @param word A word
+   * @return A copy of the word's kept samples, or null if it is not watched
+   */
+  public Trajectory trajectory(String word) {
+    int slot = slot(word);
+    return (slot < 0) ? null : copy(slot);
+  }
+
+  private Trajectory copy(int slot) {
+    int n = (int) Math.min(recorded[slot], capacity);
+    long[] x = new long[n];
+    float[] y = new float[n];
+    // The oldest kept sample is where the next one goes once the ring is full
+    int start = (recorded[slot] > capacity) ? (int) (recorded[slot] % capacity) : 0;
+    for (int k = 0; k < n; k++) {
+      int i = slot * capacity + (start + k) % capacity;
+      x[k] = instances[i];
+      y[k] = scores[i];
+    }
+    return new Trajectory(words[slot], recorded[slot], x, y);
+  }
+
+  /**
+   * @return Copies of every watched word's kept samples, in the order of the watch list
+   */
+  public List<Trajectory> copyAll() {
+    List<Trajectory> all = new ArrayList<>(words.length);
+    for (int slot = 0; slot < words.length; slot++) {
+      all.add(copy(slot));
+    }
+    return all;
+  }
+
+  /**
+   * Writes every watched word's kept samples.
+   * @param file The file, replaced if it exists
+   * @throws IOException If the file cannot be written
+   */
+  public void export(File file) throws IOException {
+    write(file, capacity, copyAll());
+  }
+
+  /**
+   * Writes trajectories, so they can be copied under a lock and written outside of it.
+   * @param file The file, replaced if it exists
+   * @param capacity The capacity of the recorder they were copied from
+   * @param all The trajectories
+   * @throws IOException If the file cannot be written
+   */
+  public static void write(File file, int capacity, List<Trajectory> all) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(capacity);
+      out.writeInt(all.size());
+      for (Trajectory t : all) {
+        out.writeUTF(t.word);
+        out.writeLong(t.recorded);
+        out.writeInt(t.instances.length);
+        long previous = 0;
+        for (int k = 0; k < t.instances.length; k++) {
+          writeVarLong(out, t.instances[k] - previous);
+          out.writeFloat(t.scores[k]);
+          previous = t.instances[k];
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads an exported file.
+   * @param file The file
+   * @return The trajectories by word, in the order of the watch list
+   * @throws IOException If the file cannot be read or is not a trajectory file
+   */
+  public static Map<String, Trajectory> read(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not a trajectory file");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException(file + " has unsupported trajectory version " + version);
+      }
+      in.readInt(); // The capacity
+      int numWords = in.readInt();
+      Map<String, Trajectory> result = new LinkedHashMap<>();
+      for (int w = 0; w < numWords; w++) {
+        String word = in.readUTF();
+        long recorded = in.readLong();
+        int n = in.readInt();
+        long[] x = new long[n];
+        float[] y = new float[n];
+        long previous = 0;
+        for (int k = 0; k < n; k++) {
+          x[k] = previous + readVarLong(in);
+          y[k] = in.readFloat();
+          previous = x[k];
+        }
+        result.put(word, new Trajectory(word, recorded, x, y));
+      }
+      return result;
+    }
+  }
+
+  private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+    while ((v & ~0x7FL) != 0) {
+      out.writeByte((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.writeByte((int) v);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long v = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.readUnsignedByte();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return v;
+      }
+    }
+  }
+
+  /**
+   * The kept samples of one word, oldest first.
+   */
+  public static class Trajectory {
+    final String word;
+    final long recorded;
+    final long[] instances;
+    final float[] scores;
+
+    Trajectory(String word, long recorded, long[] instances, float[] scores) {
+      this.word = word;
+      this.recorded = recorded;
+      this.instances = instances;
+      this.scores = scores;
+    }
+
+    public String getWord() { return word; }
+    public long getRecorded() { return recorded; }
+    public long[] getInstances() { return instances; }
+    public float[] getScores() { return scores; }
+  }
+
+  /**
+   * Prints an exported file as CSV: word, instance, score.
+   * @param args The file
+   * @throws IOException If the file cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: TrajectoryRecorder trajectories.bin");
+      System.exit(1);
+    }
+    System.out.println("word,instance,score");
+    for (Trajectory t : read(new File(args[0])).values()) {
+      for (int k = 0; k < t.instances.length; k++) {
+        System.out.println(t.word + "," + t.instances[k] + "," + t.scores[k]);
+      }
+    }
+  }
+}
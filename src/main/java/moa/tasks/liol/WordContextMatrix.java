@@ -8,14 +8,23 @@ import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
 
 import javax.lang.model.element.UnknownElementException;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 
 import java.lang.Math;
 
@@ -34,20 +43,74 @@ import static java.lang.Double.max;
 public class WordContextMatrix {
 
   protected Object2ObjectMap<String, WordRep> vocabulary;
-  protected int processedInstances;
+  protected long processedInstances;
+  private long emittedInstances;
 
-  private int tokensSeen;
+  private long tokensSeen;
   private Object2IntMap<String> contextWordIndices;
   private int nextPos;
   private int vocabSize;
   private int contextSize;
   private int windowSize;
-  private InputObject inObj;
+  private InputSource inObj;
+  private InstancesHeader instHeader;
   private Trainer trainer;
   boolean isPPMI;
   boolean isHashing;
-
-  private Object2IntMap<String> contextBinCounts; // To keep track of the overall bin counts...
+  private SimHashIndex similarityIndex; // null unless nearest-neighbour queries are enabled
+
+  private boolean trackChanges; // Whether snapshots are taken while the matrix is built
+  private ObjectArrayList<WordRep> dirtyRows; // Rows changed since the last snapshot, if tracked
+  private MatrixSnapshot lastSnapshot;
+  private final int snapshotChunks;
+  private LexiconExporter exporter;
+  private int exportInterval;
+  private volatile boolean exportRequested;
+  private QueryServer queryServer;
+  private int publishInterval;
+
+  private MemoryBudget memoryBudget;
+  private boolean admitting = true; // false while the budget keeps new words out
+  private long wordBytes; // The vocabulary's words and WordRep objects
+  private long rowBytes; // The context dictionaries of the rows
+  private long contextIndexBytes; // The context index's words
+  private long snapshotRowBytes; // The row copies held by the last snapshot
+  private ObjectOpenHashSet<String> evictedWords; // Rows of the last snapshot evicted since
+  private int rowsEvicted;
+  private int rowLimit; // The contexts kept per row, 0 to keep them up to the context size
+  private long contextsReplaced;
+  private Random counterRounding; // null unless the rows keep approximate counts
+
+  private Random subsampler; // null unless frequent tokens are subsampled
+  private double subsampleThreshold;
+  private long tokensObserved; // Every token read in this run, kept or not
+  private long tokensSubsampled;
+  private ObjectArrayList<String> keptTokens; // Scratch space of subsample(), null unless subsampling
+
+  private int learnerQueue; // 0 to learn on the matrix thread
+  private InstanceLog.Writer instanceLog;
+  private DuplicateFilter duplicateFilter;
+  private LoadShedder loadShedder; // null unless work is shed when falling behind the input
+
+  // Hot and cold rows, rowSpill is null unless cold rows are spilled to disk
+  private RowSpill rowSpill;
+  private int hotLimit;
+  private ObjectArrayList<WordRep> hotRows; // The clock, unk is never in it
+  private int clockHand;
+  private int[] spillIndices; // Scratch space for moving a row to and from the spill
+  private int[] spillCounts;
+  private long rowsSpilled;
+  private long rowFaults;
+  private LearnerStage learnerStage;
+
+  private String[] contextWordNames; // The context index's own strings, by index
+  private long[] contextBinCounts; // To keep track of the overall bin counts...
+  private String[] contextBinNames; // "contextbin" + i, built once instead of on every lookup
+
+  // The window engine's ring buffer of resolved positions, windowSize + 1 slots
+  private WordRep[] ringRows;
+  private String[] ringTokens;
+  private String[] ringContexts;
 
   /**
    * The constructor. Initializing the WCM.
@@ -56,7 +119,7 @@ public class WordContextMatrix {
    * @param wSize The window size
    * @param inStream The input stream
    */
-  public WordContextMatrix(int vSize, int cSize, int wSize, InputObject inStream, Trainer trainer) {
+  public WordContextMatrix(int vSize, int cSize, int wSize, InputSource inStream, Trainer trainer) {
     this.windowSize = wSize;
     this.vocabSize = vSize;
     this.contextSize = cSize;
@@ -66,6 +129,14 @@ public class WordContextMatrix {
     this.contextWordIndices = new Object2IntOpenHashMap<>();
     this.nextPos = 1;
     this.trainer = trainer;
+    this.dirtyRows = new ObjectArrayList<>();
+    this.snapshotChunks = MatrixSnapshot.numChunks(vSize);
+    this.evictedWords = new ObjectOpenHashSet<>();
+    this.memoryBudget = new MemoryBudget(0);
+    this.contextWordNames = new String[cSize];
+    this.ringRows = new WordRep[wSize + 1];
+    this.ringTokens = new String[wSize + 1];
+    this.ringContexts = new String[wSize + 1];
 
 
     // Set the weighting style (default none)
@@ -90,23 +161,26 @@ public class WordContextMatrix {
    * @return The sparse instance
    */
   private SparseInstance sparseCreator(WordRep wr) {
+    wr.touch();
     double weight = 1;
-    Double[] attributeValues = new Double[wr.contextDictionary.size() + 1];
-    int[] indexValues = new int[wr.contextDictionary.size() + 1];
+    String[] keys = new String[wr.contextDictionary.size() + 1];
+    int[] counts = new int[keys.length];
+    int n = wr.emittedCounts(keys, counts);
+    double[] attributeValues = new double[n + 1];
+    int[] indexValues = new int[n + 1];
 
     List<Words> contextWordList = new ArrayList<>();
 
-    for (String word: wr.contextDictionary.keySet()) {
+    for (int i = 0; i < n; i++) {
+      String word = keys[i];
       // If the word isn't unk
       if (contextWordIndices.containsKey(word)) {
-        contextWordList.add(new Words(contextWordIndices.getInt(word),
-            wr.contextDictionary.getInt(word), word));
+        contextWordList.add(new Words(contextWordIndices.getInt(word), counts[i], word));
       } else {
         if (isHashing) {
           throw new UnknownElementException(null, word);
         } else {
-          contextWordList.add(new Words(contextWordIndices.getInt("unk"),
-              wr.contextDictionary.getInt(word), "unk"));
+          contextWordList.add(new Words(contextWordIndices.getInt("unk"), counts[i], "unk"));
         }
       }
     }
@@ -132,7 +206,7 @@ public class WordContextMatrix {
       attribValues = ppmizer(wr, sortedAttribs);
       attribValues[indexValues.length - 1] = Double.NaN;
     } else {
-      attribValues = unboxer(attributeValues);
+      attribValues = attributeValues;
     }
 
     return new SparseInstance(weight, attribValues, indexValues, wr.contextSize + 1);
@@ -173,6 +247,547 @@ public class WordContextMatrix {
     }
   }
 
+  public long getProcessedInstances() { return processedInstances; }
+  public long getTokensSeen() { return tokensSeen; }
+  public long getEmittedInstances() { return emittedInstances; }
+  public long getTokensSubsampled() { return tokensSubsampled; }
+
+  /**
+   * Takes an immutable snapshot of the matrix. Must be called from the thread building the matrix,
+   * between two lines. With an exporter or a query server the changed rows are tracked, and only
+   * the chunks holding rows changed since the previous snapshot are copied, see MatrixSnapshot.
+   * Otherwise every row is copied, e.g. for the shard written at the end.
+   * @return The snapshot
+   */
+  public MatrixSnapshot snapshot() {
+    if (!trackChanges || lastSnapshot == null) {
+      // Every row, whether or not it was created before the tracking started
+      Object2ObjectOpenHashMap<String, MatrixSnapshot.RowSnapshot>[] chunks =
+          MatrixSnapshot.emptyChunks(snapshotChunks);
+      long bytes = 0;
+      for (WordRep wr : vocabulary.values()) {
+        MatrixSnapshot.RowSnapshot frozen = wr.freeze();
+        chunks[MatrixSnapshot.chunkOf(wr.getWord(), snapshotChunks)].put(wr.getWord(), frozen);
+        bytes += frozen.sizeInBytes();
+      }
+      for (WordRep wr : dirtyRows) {
+        wr.dirty = false;
+      }
+      dirtyRows.clear();
+      evictedWords.clear();
+      MatrixSnapshot full = newSnapshot(chunks);
+      if (trackChanges) {
+        lastSnapshot = full;
+        snapshotRowBytes = bytes;
+      }
+      return full;
+    }
+
+    Object2ObjectOpenHashMap<String, MatrixSnapshot.RowSnapshot>[] chunks = lastSnapshot.chunks.clone();
+    boolean[] copied = new boolean[snapshotChunks];
+    for (String word : evictedWords) {
+      MatrixSnapshot.RowSnapshot old = writableChunk(chunks, copied, word).remove(word);
+      if (old != null) {
+        snapshotRowBytes -= old.sizeInBytes();
+      }
+    }
+    evictedWords.clear();
+    for (WordRep wr : dirtyRows) {
+      wr.dirty = false;
+      if (vocabulary.get(wr.getWord()) != wr) {
+        continue; // Evicted after it changed
+      }
+      MatrixSnapshot.RowSnapshot frozen = wr.freeze();
+      MatrixSnapshot.RowSnapshot old = writableChunk(chunks, copied, wr.getWord()).put(wr.getWord(), frozen);
+      snapshotRowBytes += frozen.sizeInBytes() - ((old == null) ? 0 : old.sizeInBytes());
+    }
+    dirtyRows.clear();
+    lastSnapshot = newSnapshot(chunks);
+    return lastSnapshot;
+  }
+
+  private MatrixSnapshot newSnapshot(Object2ObjectOpenHashMap<String, MatrixSnapshot.RowSnapshot>[] chunks) {
+    // The context index only ever grows, so an unchanged size means an unchanged index
+    Object2IntMap<String> indices = (lastSnapshot != null &&
+        lastSnapshot.contextWordIndices.size() == contextWordIndices.size()) ?
+        lastSnapshot.contextWordIndices : new Object2IntOpenHashMap<>(contextWordIndices);
+
+    long[] binCounts = null;
+    if (isHashing) {
+      binCounts = new long[contextSize];
+      System.arraycopy(contextBinCounts, 0, binCounts, 0, contextSize);
+    }
+
+    return new MatrixSnapshot(chunks, indices, binCounts, tokensSeen, processedInstances,
+        contextSize, isPPMI, isHashing, similarityIndex);
+  }
+
+  /**
+   * @return The chunk of the word, copied first if this snapshot still shares it with the last one
+   */
+  private Object2ObjectOpenHashMap<String, MatrixSnapshot.RowSnapshot> writableChunk(
+      Object2ObjectOpenHashMap<String, MatrixSnapshot.RowSnapshot>[] chunks, boolean[] copied, String word) {
+    int c = MatrixSnapshot.chunkOf(word, chunks.length);
+    if (!copied[c]) {
+      chunks[c] = new Object2ObjectOpenHashMap<>(chunks[c]);
+      copied[c] = true;
+    }
+    return chunks[c];
+  }
+
+  /**
+   * Makes the matrix export the induced lexicon while it is being built.
+   * @param exporter The exporter that scores the snapshots
+   * @param interval Export every this many lines, 0 to only export on request and at the end
+   */
+  public void setLexiconExporter(LexiconExporter exporter, int interval) {
+    this.exporter = exporter;
+    this.trackChanges |= exporter != null;
+    this.exportInterval = interval;
+  }
+
+  /**
+   * Makes the matrix publish its state to a query server while it is being built.
+   * @param server The server answering the lookups
+   * @param interval Publish every this many lines
+   */
+  public void setQueryServer(QueryServer server, int interval) {
+    this.queryServer = server;
+    this.trackChanges |= server != null;
+    this.publishInterval = Math.max(1, interval);
+  }
+
+  /**
+   * Adds the counts and marginals of a shard to the matrix, e.g. to continue from the merged
+   * shards of a backfill. Contexts are matched by name, a context that doesn't fit in the context
+   * index anymore is counted as unk. Rows are created regardless of the vocabulary size and the
+   * memory budget, a full vocabulary simply admits no further words.
+   * @param file The shard
+   * @throws IOException If the shard cannot be read
+   * @throws IllegalArgumentException If the shard was built with another context size or
+   *                                  sketching method
+   */
+  public void loadShard(File file) throws IOException {
+    long start = System.nanoTime();
+    try (MatrixShard.Reader reader = new MatrixShard.Reader(file)) {
+      MatrixShard.Header header = reader.getHeader();
+      if (header.getContextSize() != contextSize || header.isHashing() != isHashing) {
+        throw new IllegalArgumentException(file + " was built with a context size of "
+            + header.getContextSize() + (header.isHashing() ? " with" : " without") + " hashing");
+      }
+      tokensSeen += header.getTokensSeen();
+      processedInstances += header.getProcessedInstances();
+      if (isHashing) {
+        for (int i = 0; i < contextSize; i++) {
+          contextBinCounts[i] += header.binCounts[i];
+        }
+      } else {
+        for (String w : header.contextWords) {
+          if (contextWordIndices.size() < contextSize) {
+            addToContextWordIndices(w);
+          }
+        }
+      }
+
+      MatrixShard.Row row;
+      while ((row = reader.next()) != null) {
+        WordRep wr = vocabulary.get(row.word);
+        if (wr == null) {
+          wr = createRow(row.word);
+        }
+        wr.numTweets = Math.max(wr.numTweets, row.numTweets);
+        wr.touch();
+        for (int i = 0; i < row.keys.length; i++) {
+          // The matrix' own strings, so rows share their keys as if they had been counted here
+          String key = isHashing ? contextBinNames[contextWordIndices.getInt(row.keys[i])]
+              : contextWordNames[contextWordIndices.getInt(row.keys[i])];
+          wr.addCount(key, row.counts[i]);
+        }
+        wr.isFull = wr.contextDictionary.size() + 1 >= contextSize;
+      }
+    }
+    System.err.println("Loaded " + file + ": " + vocabulary.size() + " rows, " + processedInstances
+        + " lines in " + (System.nanoTime() - start) / 1000000 + " ms");
+  }
+
+  /**
+   * Bounds the width of every row to its heaviest contexts. Frequent words otherwise collect
+   * thousands of contexts seen once or twice, which cost memory and dominate the time spent
+   * building their instances. A full row is a Space-Saving summary (Metwally et al., 2005): a new
+   * context replaces the lightest one and inherits its count plus one, so a context that becomes
+   * frequent late still gets in. Every count then overestimates the true one by at most the
+   * lightest count of the row, and any context more frequent than that is in the row. The row
+   * keeps what each context inherited, and instances and snapshots carry the counts without it,
+   * which never overestimate. Without hashing the inherited counts go to unk, so the mass of the
+   * row is that of the unlimited one, with hashing they are dropped.
+   * @param limit The number of contexts kept per row, unk aside, 0 for no limit
+   */
+  public void setRowLimit(int limit) {
+    this.rowLimit = limit;
+  }
+
+  /**
+   * Keeps the counts of the rows as 8 bit Morris counters instead of ints, see MorrisCountMap.
+   * Counts up to MorrisCountMap.EXACT stay exact, larger ones are unbiased estimates with a
+   * relative standard error of about a fifth, which PPMI, working on their logarithms, hardly
+   * notices. Every count written to a row is rounded to a representable value, so the norms,
+   * the SimHash accumulators, spills, shards and snapshots all see the stored values.
+   * @param seed The seed of the rounding decisions, so runs can be repeated
+   * @throws IllegalStateException If a row already has contexts
+   */
+  public void setApproximateCounts(long seed) {
+    for (WordRep wr : vocabulary.values()) {
+      if (wr.contextDictionary == null || !wr.contextDictionary.isEmpty()) {
+        throw new IllegalStateException("Approximate counts have to be chosen before the rows are filled");
+      }
+    }
+    this.counterRounding = new Random(seed);
+    for (WordRep wr : vocabulary.values()) {
+      rowBytes -= wr.rowBytes();
+      wr.contextDictionary = newDictionary(0);
+      rowBytes += wr.rowBytes();
+    }
+  }
+
+  /**
+   * @param expected The expected number of contexts
+   * @return An empty context dictionary for a row
+   */
+  private Object2IntMap<String> newDictionary(int expected) {
+    if (counterRounding != null) {
+      return new MorrisCountMap(expected);
+    }
+    return new Object2IntOpenHashMap<>(expected);
+  }
+
+  /**
+   * Subsamples frequent tokens like word2vec does: a token whose word has the running frequency f
+   * is kept with probability (sqrt(f / t) + 1) * t / f, before any window is built. Stopwords and
+   * punctuation, which pair with every neighbour but say little about them, mostly disappear,
+   * while words under the threshold are always kept. Tokens resolving to unk are always kept,
+   * their row stands for many words.
+   *
+   * The marginals only count the kept tokens, the total token count and the bin counts alike,
+   * so PPMI relates the sampled co-occurrences to the sampled frequencies.
+   * @param threshold The frequency t above which tokens are subsampled, 0 to keep every token
+   * @param seed The seed of the sampling decisions, so runs can be repeated
+   */
+  public void setSubsampling(double threshold, long seed) {
+    this.subsampleThreshold = threshold;
+    this.subsampler = (threshold > 0) ? new Random(seed) : null;
+    this.keptTokens = (threshold > 0) ? new ObjectArrayList<String>() : null;
+  }
+
+  /**
+   * Moves the trainer to a thread of its own, fed through a ring of emitted instances, so the
+   * counting of the next lines overlaps with the learning from the last ones. The evaluation
+   * stays prequential, the learner sees the instances in the order they were emitted in.
+   * Exports and snapshots published while the stream is read use the model as far as the
+   * learner has got, at most the ring's capacity of instances behind.
+   * @param capacity The number of emitted instances the ring holds before the matrix waits for
+   *                 the learner, 0 to learn on the matrix thread
+   */
+  public void setLearnerQueue(int capacity) {
+    this.learnerQueue = capacity;
+  }
+
+  /**
+   * Keeps the contexts of only the most recently used rows in memory. Between two lines, once
+   * more than hotRows rows are in memory, a CLOCK sweep spills the rows that were not touched
+   * since the hand last passed to a memory-mapped file, and a spilled row is read back the next
+   * time it is touched. Spilled rows keep their word, counts and SimHash accumulators on the
+   * heap, only their context dictionary, by far the largest part, goes to disk. A row read back
+   * and not changed keeps its record, so spilling it again costs nothing. unk is never spilled.
+   * @param hotRows The number of rows kept in memory
+   * @param directory The directory of the spill file, null for the temporary directory
+   * @throws IOException If the spill file cannot be created
+   */
+  public void enableRowSpill(int hotRows, File directory) throws IOException {
+    this.rowSpill = new RowSpill(directory);
+    this.hotLimit = Math.max(1, hotRows);
+    this.hotRows = new ObjectArrayList<>();
+    this.spillIndices = new int[contextSize + 1];
+    this.spillCounts = new int[contextSize + 1];
+    for (WordRep wr : vocabulary.values()) {
+      if (!wr.getWord().equals("unk")) {
+        clockAdd(wr);
+      }
+    }
+  }
+
+  /**
+   * Drops lines that repeat, or nearly repeat, a recent line before they are tokenized, so
+   * retweets and copy-pasted spam neither cost the whole pipeline again nor inflate the counts.
+   * Dropped lines are not counted as processed.
+   * @param filter The filter
+   */
+  public void setDuplicateFilter(DuplicateFilter filter) {
+    this.duplicateFilter = filter;
+  }
+
+  /**
+   * Keeps the matrix close to a live input by shedding work when it falls behind, at the cost
+   * of a controlled approximation, see LoadShedder. Shed lines are not counted as processed.
+   * @param shedder The shedder
+   */
+  public void setLoadShedder(LoadShedder shedder) {
+    this.loadShedder = shedder;
+  }
+
+  /**
+   * Appends every emitted instance to a log, so the learner can be tuned by replaying it instead
+   * of rebuilding the matrix. The log is closed at the end of the stream.
+   * @param log The log
+   */
+  public void setInstanceLog(InstanceLog.Writer log) {
+    this.instanceLog = log;
+  }
+
+  /**
+   * Limits the memory held by the matrix. Approaching the budget, new words stop being admitted
+   * and then the rows with the least mass are evicted, words of the seed lexicons excepted.
+   * @param budget The budget
+   */
+  public void setMemoryBudget(MemoryBudget budget) {
+    this.memoryBudget = budget;
+  }
+
+  /**
+   * @return The estimated bytes held by each part of the matrix and by the trainer
+   */
+  public Map<String, Long> memoryUsage() {
+    Map<String, Long> m = new LinkedHashMap<>();
+    m.put("vocabulary", vocabularyBytes());
+    m.put("contextIndex", contextIndexBytes());
+    m.put("rows", rowBytes);
+    m.put("snapshot", snapshotBytes());
+    m.put("projectionAndModel", trainer.sizeInBytes());
+    if (duplicateFilter != null) {
+      m.put("duplicateFilter", duplicateFilter.sizeInBytes());
+    }
+    return m;
+  }
+
+  /**
+   * @return The estimated bytes held in total, cheap enough to call on every line
+   */
+  public long memoryUsed() {
+    return vocabularyBytes() + contextIndexBytes() + rowBytes + snapshotBytes() + trainer.sizeInBytes()
+        + ((duplicateFilter == null) ? 0 : duplicateFilter.sizeInBytes());
+  }
+
+  private long vocabularyBytes() {
+    return MemoryBudget.openHashBytes(vocabulary.size(), MemoryBudget.REF, MemoryBudget.REF) + wordBytes;
+  }
+
+  private long contextIndexBytes() {
+    return MemoryBudget.openHashBytes(contextWordIndices.size(), MemoryBudget.REF, 4)
+        + MemoryBudget.align(MemoryBudget.ARRAY_HEADER + (long) MemoryBudget.REF * contextWordNames.length)
+        + contextIndexBytes;
+  }
+
+  private long snapshotBytes() {
+    return (lastSnapshot == null) ? 0 : lastSnapshot.tableBytes() + snapshotRowBytes;
+  }
+
+  /**
+   * Checks the usage against the budget, closing admission or evicting rows as needed.
+   */
+  private void enforceBudget() {
+    long used = memoryUsed();
+    admitting = memoryBudget.admitting(used);
+    long excess = memoryBudget.excess(used);
+    if (excess > 0) {
+      long freed = evictRows(excess);
+      admitting = memoryBudget.admitting(used - freed);
+    }
+  }
+
+  /**
+   * Evicts the rows with the least mass, they carry the least information about their word.
+   * Must be called between two lines.
+   * @param bytes The number of bytes to free
+   * @return The number of bytes freed
+   */
+  private long evictRows(long bytes) {
+    // The lightest rows that free enough, in a max-heap on the norm that only keeps as many
+    // rows as are needed instead of sorting the whole vocabulary
+    PriorityQueue<WordRep> lightest = new PriorityQueue<>((a, b) -> Long.compare(b.squaredNorm, a.squaredNorm));
+    long selected = 0;
+    for (WordRep wr : vocabulary.values()) {
+      if (wr.getWord().equals("unk") || trainer.isSeedWord(wr.getWord())) {
+        continue;
+      }
+      if (selected >= bytes && wr.squaredNorm >= lightest.peek().squaredNorm) {
+        continue;
+      }
+      lightest.add(wr);
+      selected += evictionBytes(wr);
+      while (selected - evictionBytes(lightest.peek()) >= bytes) {
+        selected -= evictionBytes(lightest.poll());
+      }
+    }
+
+    long freed = 0;
+    int evicted = 0;
+    for (WordRep wr : lightest) {
+      vocabulary.remove(wr.getWord());
+      if (lastSnapshot != null && lastSnapshot.getRow(wr.getWord()) != null) {
+        evictedWords.add(wr.getWord());
+      }
+      if (wr.clockSlot >= 0) {
+        clockRemove(wr);
+      }
+      if (wr.spillOffset >= 0) {
+        rowSpill.free(wr.spillOffset);
+      }
+      long size = evictionBytes(wr);
+      wordBytes -= wr.wordBytes();
+      rowBytes -= wr.rowBytes();
+      // It may still be on the dirty list, which must not keep its contexts alive
+      wr.contextDictionary = null;
+      wr.projection = null;
+      wr.overestimates = null;
+      wr.dropLightest();
+      freed += size;
+      evicted++;
+    }
+    rowsEvicted += evicted;
+    System.err.println("Memory budget of " + MemoryBudget.megabytes(memoryBudget.getBudget())
+        + " reached at line " + processedInstances + ", evicted " + evicted + " rows freeing "
+        + MemoryBudget.megabytes(freed));
+    return freed;
+  }
+
+  /**
+   * Drops the evicted rows from the dirty list.
+   */
+  private void compactDirtyRows() {
+    int kept = 0;
+    for (int i = 0; i < dirtyRows.size(); i++) {
+      WordRep wr = dirtyRows.get(i);
+      if (vocabulary.get(wr.getWord()) == wr) {
+        dirtyRows.set(kept++, wr);
+      } else {
+        wr.dirty = false;
+      }
+    }
+    dirtyRows.size(kept);
+  }
+
+  private long evictionBytes(WordRep wr) {
+    return wr.wordBytes() + wr.rowBytes();
+  }
+
+  /**
+   * Publishes a snapshot of the rows, a copy of the model and the metrics to the query server.
+   * With a learner thread the model and its metrics are the ones it published last, so the
+   * matrix never waits for it.
+   */
+  private void publishState() {
+    Trainer.Published learnt = trainerState();
+    Map<String, Double> metrics = (learnt == null) ? new LinkedHashMap<String, Double>()
+        : new LinkedHashMap<>(learnt.getMetrics());
+    metrics.put("contextWords", (double) contextWordIndices.size());
+    long total = 0;
+    for (Map.Entry<String, Long> e : memoryUsage().entrySet()) {
+      String part = e.getKey();
+      metrics.put("memory" + Character.toUpperCase(part.charAt(0)) + part.substring(1),
+          (double) e.getValue());
+      total += e.getValue();
+    }
+    metrics.put("memoryTotal", (double) total);
+    metrics.put("memoryBudget", (double) memoryBudget.getBudget());
+    metrics.put("rowsEvicted", (double) rowsEvicted);
+    metrics.put("admitting", admitting ? 1.0 : 0.0);
+    metrics.put("contextsReplaced", (double) contextsReplaced);
+    metrics.put("tokensSubsampled", (double) tokensSubsampled);
+    if (duplicateFilter != null) {
+      metrics.put("duplicatesExact", (double) duplicateFilter.getExactDuplicates());
+      metrics.put("duplicatesNear", (double) duplicateFilter.getNearDuplicates());
+      metrics.put("duplicateRate", (double) (duplicateFilter.getExactDuplicates()
+          + duplicateFilter.getNearDuplicates()) / duplicateFilter.getLinesChecked());
+    }
+    if (rowSpill != null) {
+      metrics.put("hotRows", (double) hotRows.size());
+      metrics.put("rowsSpilled", (double) rowsSpilled);
+      metrics.put("rowFaults", (double) rowFaults);
+      metrics.put("spillFileBytes", (double) rowSpill.fileBytes());
+      metrics.put("spillGarbageBytes", (double) rowSpill.garbageBytes());
+    }
+    if (loadShedder != null) {
+      metrics.put("shedLevel", (double) loadShedder.getLevel());
+      metrics.put("shedLagMillis", loadShedder.getLagMillis());
+      metrics.put("shedLinesPerSecond", loadShedder.getLinesPerSecond());
+      metrics.put("linesShed", (double) loadShedder.getLinesShed());
+      metrics.put("linesNarrowed", (double) loadShedder.getLinesNarrowed());
+      metrics.put("pairsShed", (double) loadShedder.getPairsShed());
+      metrics.put("emissionsShed", (double) loadShedder.getEmissionsShed());
+    }
+    if (learnerStage != null) {
+      metrics.put("learnerBacklog", (double) learnerStage.backlog());
+      metrics.put("learnerStalls", (double) learnerStage.getStalls());
+    }
+    queryServer.publish(snapshot(), (learnt == null) ? null : learnt.getScorer(), metrics);
+  }
+
+  /**
+   * @return A copy of the model and the metrics, taken here if no other thread learns, otherwise the
+   * last one the learner thread published, asking it for a fresh one for next time. null until
+   * the learner thread has published one.
+   */
+  private Trainer.Published trainerState() {
+    if (learnerStage == null || learnerStage.isClosed()) {
+      trainer.publish();
+    } else {
+      trainer.requestPublication();
+    }
+    return trainer.published();
+  }
+
+  /**
+   * Asks for a lexicon export at the next line boundary. Safe to call from any thread.
+   */
+  public void requestExport() {
+    this.exportRequested = true;
+  }
+
+  /**
+   * Hands a snapshot of the rows and the model to the exporter, unless the previous export is
+   * still running or there is no projection to score with yet.
+   */
+  private void startExport() {
+    exportRequested = false;
+    if (exporter.isBusy()) {
+      System.err.println("Previous lexicon export still running, skipping this one");
+      return;
+    }
+    Trainer.Published learnt = trainerState();
+    if (learnt != null && learnt.getScorer() != null) {
+      exporter.submit(snapshot(), learnt.getScorer());
+    }
+  }
+
+  /**
+   * Enables the SimHash signatures used by the nearest-neighbour queries of the snapshots. They
+   * are maintained incrementally from then on, rows that already exist are signed straight away.
+   * @param numTables The number of bands (hash tables) of the index
+   * @param bitsPerTable The number of signature bits per band
+   * @param seed The seed the random hyperplanes are derived from
+   */
+  public void enableSimilarityIndex(int numTables, int bitsPerTable, long seed) {
+    similarityIndex = new SimHashIndex(numTables, bitsPerTable, seed);
+    for (WordRep wr : vocabulary.values()) {
+      wr.projection = new int[similarityIndex.numProjections()];
+      wordBytes += MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 4L * wr.projection.length);
+      wr.touch();
+      for (Object2IntMap.Entry<String> e : wr.contextDictionary.object2IntEntrySet()) {
+        similarityIndex.accumulate(wr.projection, e.getKey(), e.getIntValue());
+      }
+      wr.markDirty(); // So the next snapshot carries its signature
+    }
+  }
+
   /**
    * Builds the matrix of sparse vectors by incrementally updating the word vectors.
    * Does this by tokenizing and pre-processing all the tweets/sentences and then sliding a window
@@ -180,88 +795,247 @@ public class WordContextMatrix {
    * Ends by producing a sparse instance and outputting it to an arff file.
    */
   public void buildMatrix() {
-    String line;
-
     System.err.println("Program started...");
-    InstancesHeader instHeader = createInstanceHeader();
+    instHeader = createInstanceHeader();
 
     trainer.setHeader(instHeader);
+    if (learnerQueue > 0) {
+      learnerStage = new LearnerStage(trainer, learnerQueue);
+    }
 
     System.out.println("Num Instances,Accuracy,TP,FP,TN,FN,F1,Precision,Recall,Kappa,Time");
 
-    while((line = inObj.getNextInstance()) != null ) {
-      processedInstances++;
-
-      line = line.toLowerCase();
-      // Tokenize the line
-      List<String> tokens = Twokenize.tokenizeRawTweetText(line);
-
-      tokensSeen += tokens.size(); // For PPMI among other things
+    String[] batch;
+    while ((batch = inObj.nextBatch()) != null) {
+      if (loadShedder != null) {
+        loadShedder.check(inObj, System.nanoTime());
+      }
+      for (String line : batch) {
+        if (loadShedder != null && !loadShedder.keepLine()) {
+          continue;
+        }
+        if (duplicateFilter != null && duplicateFilter.isDuplicate(line)) {
+          continue;
+        }
+        processLine(line);
 
-      // Add to vocab
-      for (String word: tokens) {
-        if (isHashing) {
-          int binId = Math.abs(jenkinsHash(word.getBytes()) % contextSize);
-//          int binId = Math.abs(defaultStringHash(word) % contextSize);
+        if (memoryBudget.getBudget() > 0) {
+          enforceBudget();
+        }
+        if (rowSpill != null && hotRows.size() > hotLimit) {
+          spillColdRows();
+        }
 
-          contextBinCounts.put("contextbin" + binId, contextBinCounts.getInt("contextbin" + binId) + 1);
-          addToVocab(word);
-        } else {
-          addToVocab(word);
+        if (exporter != null && (exportRequested ||
+            (exportInterval > 0 && processedInstances % exportInterval == 0))) {
+          startExport();
+        }
+        if (queryServer != null && processedInstances % publishInterval == 0) {
+          publishState();
         }
       }
+    }
+    inObj.close();
+
+    if (instanceLog != null) {
+      try {
+        instanceLog.close();
+        System.err.println("Logged " + instanceLog.getRecords() + " instances");
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
 
-      //System.err.println(line);
+    // Everything emitted has to be learnt before the final snapshot and export
+    if (learnerStage != null) {
+      learnerStage.close();
+      System.err.println("Learner thread done, the matrix waited for it on " + learnerStage.getStalls()
+          + " of " + emittedInstances + " instances");
+    }
 
-      // Build the window
-      for (int i = 0; i < tokens.size() - 1; i++) {
-        int sliceStart = (i - this.windowSize >= 0) ? i - this.windowSize : 0;
-        int sliceEnd = (i + this.windowSize + 1 >= tokens.size()) ?
-            tokens.size() : i + this.windowSize + 1;
-        List<String> window = tokens.subList(sliceStart, sliceEnd);
+    if (queryServer != null) {
+      publishState();
+    }
 
-        WordRep focusWord = getWordRep(tokens.get(i));
+    // A final, complete export of the lexicon
+    if (exporter != null) {
+      try {
+        exporter.finish(snapshot(), trainer.scorer());
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+    StringBuilder usage = new StringBuilder("Estimated memory:");
+    for (Map.Entry<String, Long> e : memoryUsage().entrySet()) {
+      usage.append(' ').append(e.getKey()).append(' ').append(MemoryBudget.megabytes(e.getValue()));
+    }
+    usage.append(", ").append(rowsEvicted).append(" rows evicted");
+    if (rowLimit > 0) {
+      usage.append(", ").append(contextsReplaced).append(" contexts replaced");
+    }
+    if (subsampler != null) {
+      usage.append(", ").append(tokensSubsampled).append(" tokens subsampled");
+    }
+    if (duplicateFilter != null) {
+      usage.append(", ").append(duplicateFilter.getExactDuplicates()).append(" duplicate and ")
+          .append(duplicateFilter.getNearDuplicates()).append(" near duplicate lines dropped");
+    }
+    if (loadShedder != null) {
+      usage.append(", shed ").append(loadShedder);
+    }
+    if (rowSpill != null) {
+      usage.append(", ").append(hotRows.size()).append(" hot rows, ").append(rowsSpilled)
+          .append(" spills, ").append(rowFaults).append(" faults, spill file ")
+          .append(MemoryBudget.megabytes(rowSpill.fileBytes()));
+    }
+    System.err.println(usage);
+    System.err.println("Program ran to completion");
+  }
 
-        // Update Context
-        if (isHashing) {
-          for (String word : window) {
-            if (!word.equals(focusWord.getWord())) {
-              int binId = Math.abs(jenkinsHash(word.getBytes()) % contextSize);
-//              int binId = Math.abs(defaultStringHash(word) % contextSize);
-              // Increment the binId in the context map.
-              focusWord.addToContext("contextbin" + binId);
-            }
-          }
-        } else {
-          for (String word : window) {
-            if (!contextWordIndices.containsKey(word) && contextWordIndices.size() < contextSize) {
-              addToContextWordIndices(word);
-            }
-            if (!contextWordIndices.containsKey(word) && contextWordIndices.size() == contextSize &&
-                !word.equals(focusWord.getWord()) || focusWord.equals("unk") &&
-                !contextWordIndices.containsKey(word) && contextWordIndices.size() == contextSize) {
-              focusWord.addToContext("unk");
-            } else if (!word.equals(focusWord.getWord())) {
-              focusWord.addToContext(word);
-            }
-          }
+  /**
+   * Tokenizes a single tweet/sentence and slides the window across it.
+   *
+   * The line is walked once. Every token is resolved a single time to its row and its context key,
+   * and kept in a ring buffer of the last windowSize + 1 positions. When a token arrives it is
+   * paired with every position still in the ring, and each pair updates both rows at once, so no
+   * window is ever rebuilt and no pair is looked up twice. A position is complete, and its
+   * instance is sent to the trainer, once it has left the window (or the line ended), so it holds
+   * the same counts the full window around it would have given it.
+   * @param line The raw line
+   */
+  private void processLine(String line) {
+    processedInstances++;
+
+    line = line.toLowerCase();
+    // Tokenize the line
+    List<String> tokens = Twokenize.tokenizeRawTweetText(line);
+    if (subsampler != null) {
+      tokens = subsample(tokens);
+    }
+
+    tokensSeen += tokens.size(); // For PPMI among other things
+
+    // The ring always fits the full window, a narrowed window only uses part of it
+    int ring = windowSize + 1;
+    int window = (loadShedder != null) ? loadShedder.window(windowSize) : windowSize;
+    int n = tokens.size();
+    if (window < windowSize) {
+      loadShedder.narrowed(pairs(n, windowSize) - pairs(n, window));
+    }
+    for (int j = 0; j < n; j++) {
+      String token = tokens.get(j);
+      int slot = j % ring;
+
+      // Resolve the token once: its row and the key it is counted under as a context
+      String contextKey;
+      if (isHashing) {
+        int binId = Math.abs(jenkinsHash(token.getBytes()) % contextSize);
+        contextBinCounts[binId]++;
+        contextKey = contextBinNames[binId];
+      } else {
+        if (contextWordIndices.size() < contextSize) {
+          addToContextWordIndices(token);
+        }
+        // A missing word gets index 0, unk, and every row shares the index's own string as key
+        contextKey = contextWordNames[contextWordIndices.getInt(token)];
+      }
+      addToVocab(token);
+      WordRep row = getWordRep(token);
+
+      ringRows[slot] = row;
+      ringTokens[slot] = token;
+      ringContexts[slot] = contextKey;
+
+      // Pair the new token with every earlier position still inside the window
+      for (int i = Math.max(0, j - window); i < j; i++) {
+        int other = i % ring;
+        // A word is never counted as its own context
+        if (!token.equals(ringRows[other].getWord())) {
+          ringRows[other].addToContext(contextKey);
+        }
+        if (!ringTokens[other].equals(row.getWord())) {
+          row.addToContext(ringContexts[other]);
         }
+      }
 
-        //focusWord.incrementTweets();
+      if (j - window >= 0) {
+        emit(ringRows[(j - window) % ring]);
+      }
+    }
 
-        //masterCtxChecker(); // Check that the context map is correct
+    // The last positions never left the window
+    for (int i = Math.max(0, n - window); i < n; i++) {
+      emit(ringRows[i % ring]);
+    }
+  }
 
-        // If the word has been seen a significant (10) number of times, send it to be classified.
-        if (focusWord.numTweets >= 1) {
-          Instance sprseFocus = sparseCreator(focusWord);
-          sprseFocus.setDataset(instHeader);
-          //System.err.println(focusWord.getWord() + " " + sprseFocus.toString());
-          trainer.learn(focusWord.getWord(), sprseFocus);
+  /**
+   * @param n The number of tokens of a line
+   * @param window A window size
+   * @return The number of token pairs the window covers on the line
+   */
+  private static long pairs(int n, int window) {
+    // Every token pairs with up to window earlier ones
+    long w = Math.min(window, n);
+    return w * (w - 1) / 2 + (n - w) * w;
+  }
+
+  /**
+   * Drops frequent tokens at random, see setSubsampling.
+   * @param tokens The tokens of a line
+   * @return The tokens kept, in a list reused by the next line
+   */
+  private List<String> subsample(List<String> tokens) {
+    keptTokens.clear();
+    for (String token : tokens) {
+      tokensObserved++;
+      addToVocab(token);
+      WordRep row = getWordRep(token);
+      if (row.getWord().equals("unk")) {
+        keptTokens.add(token);
+        continue;
+      }
+      row.occurrences++;
+      // Until 1 / t tokens have been read every word would look frequent
+      if (tokensObserved * subsampleThreshold >= 1) {
+        double f = (double) row.occurrences / tokensObserved;
+        double keep = (Math.sqrt(f / subsampleThreshold) + 1) * subsampleThreshold / f;
+        if (keep < 1 && subsampler.nextDouble() >= keep) {
+          tokensSubsampled++;
+          continue;
         }
       }
-      //System.err.println();
+      keptTokens.add(token);
+    }
+    return keptTokens;
+  }
+
+  /**
+   * Sends the current instance of a completed focus word to the trainer.
+   * @param focusWord The word whose window is complete
+   */
+  private void emit(WordRep focusWord) {
+    // If the word has been seen a significant (10) number of times, send it to be classified.
+    if (focusWord.numTweets >= 1) {
+      if (loadShedder != null && !loadShedder.keepEmission(trainer.isSeedWord(focusWord.getWord()))) {
+        return;
+      }
+      Instance sprseFocus = sparseCreator(focusWord);
+      sprseFocus.setDataset(instHeader);
+      emittedInstances++;
+      if (instanceLog != null) {
+        try {
+          instanceLog.append(focusWord.getWord(), trainer.polarity(focusWord.getWord()), sprseFocus);
+        } catch (IOException ex) {
+          throw new RuntimeException("Cannot write the instance log", ex);
+        }
+      }
+      if (learnerStage != null) {
+        learnerStage.publish(focusWord.getWord(), sprseFocus);
+      } else {
+        trainer.learn(focusWord.getWord(), sprseFocus);
+      }
     }
-    System.err.println("Program ran to completion");
   }
 
   /**
@@ -270,7 +1044,8 @@ public class WordContextMatrix {
    * @return The wordrep for the given word or for unk
    */
   private WordRep getWordRep(String word) {
-    return (this.vocabulary.containsKey(word)) ? this.vocabulary.get(word) : vocabulary.get("unk");
+    WordRep wr = this.vocabulary.get(word);
+    return (wr != null) ? wr : vocabulary.get("unk");
   }
 
   /**
@@ -278,10 +1053,96 @@ public class WordContextMatrix {
    * @param word The word to add to the vocabulary
    */
   private void addToVocab(String word) {
-    if (this.vocabulary.size() != this.vocabSize && !this.vocabulary.containsKey(word)) {
-      this.vocabulary.put(word, new WordRep(word, this.contextSize));
-      this.vocabulary.get(word).incrementTweets();
+    if (this.vocabulary.size() < this.vocabSize && admitting && !this.vocabulary.containsKey(word)) {
+      createRow(word);
+    }
+  }
+
+  /**
+   * Creates the row of a new word and accounts for its memory.
+   * @param word The word, not in the vocabulary yet
+   * @return The row
+   */
+  private WordRep createRow(String word) {
+    WordRep wr = new WordRep(word, this.contextSize);
+    this.vocabulary.put(word, wr);
+    wr.incrementTweets();
+    wordBytes += wr.wordBytes();
+    rowBytes += wr.rowBytes();
+    if (rowSpill != null) {
+      clockAdd(wr);
+    }
+    return wr;
+  }
+
+  private void clockAdd(WordRep wr) {
+    wr.clockSlot = hotRows.size();
+    hotRows.add(wr);
+  }
+
+  private void clockRemove(WordRep wr) {
+    WordRep last = hotRows.pop();
+    if (last != wr) {
+      hotRows.set(wr.clockSlot, last);
+      last.clockSlot = wr.clockSlot;
+    }
+    wr.clockSlot = -1;
+  }
+
+  /**
+   * Sweeps the clock, spilling rows not touched since the hand last passed, until no more than
+   * hotLimit rows are in memory. Must be called between two lines.
+   */
+  private void spillColdRows() {
+    try {
+      while (hotRows.size() > hotLimit) {
+        if (clockHand >= hotRows.size()) {
+          clockHand = 0;
+        }
+        WordRep wr = hotRows.get(clockHand);
+        if (wr.referenced) {
+          wr.referenced = false;
+          clockHand++;
+        } else {
+          clockRemove(wr); // The last row takes its place under the hand
+          wr.spill();
+        }
+      }
+      if (rowSpill.needsCompaction()) {
+        compactSpill();
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException("Cannot spill rows to " + rowSpill, ex);
+    }
+  }
+
+  /**
+   * Copies the records of the cold rows to a fresh spill file and drops the old one.
+   */
+  private void compactSpill() throws IOException {
+    long before = rowSpill.fileBytes();
+    RowSpill compacted = rowSpill.emptyCopy();
+    for (WordRep wr : vocabulary.values()) {
+      if (wr.spillOffset >= 0) {
+        if (wr.contextDictionary != null) {
+          wr.spillOffset = -1; // A hot row is written again when it is next spilled
+        } else {
+          int n = rowSpill.read(wr.spillOffset, spillIndices, spillCounts);
+          wr.spillOffset = compacted.write(spillIndices, spillCounts, n);
+        }
+      }
     }
+    rowSpill = rowSpill.replaceWith(compacted);
+    System.err.println("Compacted the row spill from " + MemoryBudget.megabytes(before) + " to "
+        + MemoryBudget.megabytes(rowSpill.fileBytes()));
+  }
+
+  /**
+   * @param index A context index
+   * @return The key the rows count the context under
+   */
+  private String contextKey(int index) {
+    return isHashing ? contextBinNames[index] : contextWordNames[index];
   }
 
   /**
@@ -291,10 +1152,13 @@ public class WordContextMatrix {
   private void addToContextWordIndices(String contextWord) {
     if (contextWordIndices.size() == 0) {
       contextWordIndices.put("unk", 0);
+      contextWordNames[0] = "unk";
     }
-    if (this.contextWordIndices.size() != this.contextSize &&
+    if (this.contextWordIndices.size() != this.contextSize && admitting &&
         !this.contextWordIndices.containsKey(contextWord)) {
       this.contextWordIndices.put(contextWord, nextPos);
+      contextWordNames[nextPos] = contextWord;
+      contextIndexBytes += MemoryBudget.stringBytes(contextWord);
       nextPos++;
     }
   }
@@ -304,11 +1168,12 @@ public class WordContextMatrix {
    * Populates the context word indices map with the names of the bins.
    */
   private void prepareForHashing() {
-    this.contextBinCounts = new Object2IntOpenHashMap<>();
+    this.contextBinCounts = new long[contextSize];
+    this.contextBinNames = new String[contextSize];
     // initialize the context word indices for hashing.
     for (int i = 0; i < contextSize; i++) {
-      contextWordIndices.put("contextbin" + i, i);
-      contextBinCounts.put("contextbin" + i, 0);
+      contextBinNames[i] = "contextbin" + i;
+      contextWordIndices.put(contextBinNames[i], i);
     }
   }
 
@@ -319,6 +1184,15 @@ public class WordContextMatrix {
    * @return a blank / default instances header
    */
   private InstancesHeader createInstanceHeader() {
+    return createInstanceHeader(contextSize, isHashing);
+  }
+
+  /**
+   * @param contextSize The number of context attributes
+   * @param isHashing Whether the contexts are hashing bins
+   * @return The header of the instances emitted by a matrix with these settings
+   */
+  static InstancesHeader createInstanceHeader(int contextSize, boolean isHashing) {
     ArrayList<Attribute> attributes = new ArrayList<>();
     ArrayList<String> classLabels = new ArrayList<>();
 
@@ -349,20 +1223,6 @@ public class WordContextMatrix {
     }
   }
 
-  /**
-   * Unboxes a Double array to its primitive form.
-   * Done because as far as I'm aware, there is no way to do this for an array of Doubles in Java.
-   * @param attribs The Double array (array of boxed doubles)
-   * @return An unboxed primitive double array
-   */
-  private double[] unboxer(Double[] attribs) {
-    double[] d = new double[attribs.length];
-    for (int i = 0; i < attribs.length; i++) {
-      d[i] = attribs[i];
-    }
-    return d;
-  }
-
   /**
    * Converts a Double array into a double array of PMI values
    * @param attribs The Double array of attribute values
@@ -371,11 +1231,10 @@ public class WordContextMatrix {
   private double[] ppmizer(WordRep wr, Words[] attribs) {
     double[] PMIAttribs = new double[attribs.length + 1];
     for (int i = 0; i < attribs.length; i++) {
-      if (!vocabulary.containsKey(attribs[i].word) && !isHashing) {
-        System.err.println(attribs[i].word + ": " + wr.getWord());
-      }
-      int contextWordCount = (isHashing) ?
-          contextBinCounts.getInt(attribs[i].word) : vocabulary.get(attribs[i].word).numTweets;
+      // A context word without a row (the vocabulary was full or its row was evicted) counts once
+      WordRep contextRow = (isHashing) ? null : vocabulary.get(attribs[i].word);
+      long contextWordCount = (isHashing) ?
+          contextBinCounts[attribs[i].idx] : ((contextRow == null) ? 1 : contextRow.numTweets);
       double pmiRes = (attribs[i].value * tokensSeen) / (wr.numTweets * contextWordCount);
       // Log base 2
       double res = Math.log(pmiRes) / Math.log(2);
@@ -414,11 +1273,29 @@ public class WordContextMatrix {
     Object2IntMap<String> contextDictionary;
     Boolean isFull = false;
     int numTweets = 0;
+    int occurrences; // Tokens of the word read so far, only counted while subsampling
+    long squaredNorm = 0; // Sum of the squared counts, kept up to date for cosine similarity
+    int[] projection; // SimHash accumulators, null unless the similarity index is enabled
+    boolean dirty;
+    long spillOffset = -1; // The record of the row's contexts in the spill, -1 if there is none
+    // The contexts that had the row's smallest count when it was last scanned, for the row limit
+    String[] lightest;
+    int lightestLeft;
+    int lightestCount;
+    // The count each context inherited when it replaced another, null until one did
+    Object2IntMap<String> overestimates;
+    long overestimateOffset = -1; // Their record in the spill, -1 if there is none
+    int clockSlot = -1; // The row's position on the clock, -1 while it is cold
+    boolean referenced; // Touched since the clock hand last passed
 
     public WordRep(String word, Integer maxContextSize) {
       setWord(word);
       setContextSize(maxContextSize);
-      this.contextDictionary = new Object2IntOpenHashMap<>();
+      this.contextDictionary = newDictionary(0);
+      markDirty();
+      if (similarityIndex != null) {
+        this.projection = new int[similarityIndex.numProjections()];
+      }
     }
 
     public String getWord() {
@@ -434,30 +1311,380 @@ public class WordContextMatrix {
     }
 
     public void incrementTweets() {
+      markDirty();
       numTweets++;
     }
 
+    /**
+     * Marks the row as recently used, reading its contexts back first if it is cold.
+     */
+    void touch() {
+      if (contextDictionary == null) {
+        faultIn();
+      }
+      referenced = true;
+    }
+
+    private void faultIn() {
+      int n = rowSpill.read(spillOffset, spillIndices, spillCounts);
+      contextDictionary = newDictionary(n);
+      for (int i = 0; i < n; i++) {
+        contextDictionary.put(contextKey(spillIndices[i]), spillCounts[i]);
+      }
+      if (overestimateOffset >= 0) {
+        overestimates = readOverestimates();
+      }
+      rowBytes += rowBytes();
+      rowFaults++;
+      clockAdd(this);
+    }
+
+    /**
+     * Moves the row's contexts to the spill, writing them only if they changed since they were
+     * last read back.
+     */
+    void spill() throws IOException {
+      if (spillOffset < 0) {
+        int n = 0;
+        for (Object2IntMap.Entry<String> e : contextDictionary.object2IntEntrySet()) {
+          spillIndices[n] = contextWordIndices.getInt(e.getKey());
+          spillCounts[n] = e.getIntValue();
+          n++;
+        }
+        spillOffset = rowSpill.write(spillIndices, spillCounts, n);
+        if (overestimates != null) {
+          n = 0;
+          for (Object2IntMap.Entry<String> e : overestimates.object2IntEntrySet()) {
+            spillIndices[n] = contextWordIndices.getInt(e.getKey());
+            spillCounts[n] = e.getIntValue();
+            n++;
+          }
+          overestimateOffset = rowSpill.write(spillIndices, spillCounts, n);
+        }
+      }
+      rowBytes -= rowBytes();
+      contextDictionary = null;
+      overestimates = null;
+      dropLightest();
+      rowsSpilled++;
+    }
+
     public void addToContext(String contextWord) {
-      if (contextDictionary.containsKey(contextWord) || isFull) {
-        if (contextDictionary.containsKey(contextWord)) {
-          contextDictionary.put(contextWord, contextDictionary.getInt(contextWord) + 1);
+      touch();
+      // Counts are never 0 once present, so a single lookup tells whether the word is in the row
+      int count = contextDictionary.getInt(contextWord);
+      if (count > 0) {
+        putCount(contextWord, count + 1);
+      } else if (atRowLimit(contextWord)) {
+        replaceLightest(contextWord, 1);
+      } else if (isFull) {
+        if (isHashing) {
+          throw new RuntimeException("Assigned context word is out of range");
         } else {
-          if (isHashing) {
-            throw new RuntimeException("Assigned context word is out of range");
-          } else {
-            contextDictionary.put("unk", contextDictionary.getInt("unk") + 1);
-          }
+          putCount("unk", contextDictionary.getInt("unk") + 1);
         }
       } else if (contextDictionary.size() + 1 == contextSize) {
         if (isHashing) {
-          contextDictionary.put(contextWord, 1);
+          putCount(contextWord, 1);
         } else {
-          contextDictionary.put("unk", 1);
+          putCount("unk", 1);
         }
         isFull = true;
       } else {
-        contextDictionary.put(contextWord, 1);
+        putCount(contextWord, 1);
+      }
+    }
+
+    /**
+     * Adds to the count of a context, replacing the lightest context if the row is at its limit.
+     * @param contextWord The context word
+     * @param weight The count to add
+     */
+    void addCount(String contextWord, int weight) {
+      int count = contextDictionary.getInt(contextWord);
+      if (count == 0 && atRowLimit(contextWord)) {
+        replaceLightest(contextWord, weight);
+      } else {
+        putCount(contextWord, (int) Math.min(Integer.MAX_VALUE, (long) count + weight));
+      }
+    }
+
+    /**
+     * @return Whether a context that is not in the row has to replace one, unk being always let in
+     */
+    private boolean atRowLimit(String contextWord) {
+      if (rowLimit == 0) {
+        return false;
+      }
+      if (isHashing) {
+        return contextDictionary.size() >= rowLimit;
+      }
+      return !contextWord.equals("unk")
+          && contextDictionary.size() - (contextDictionary.containsKey("unk") ? 1 : 0) >= rowLimit;
+    }
+
+    /**
+     * Replaces a context with the smallest count by a new one, which inherits that count plus its
+     * own weight. The contexts at the smallest count are found by one scan of the row and used up
+     * one replacement at a time, so a row with a long tail of single counts is scanned once per
+     * that many replacements, not on every one.
+     */
+    private void replaceLightest(String contextWord, int weight) {
+      String victim = null;
+      while (victim == null) {
+        if (lightestLeft == 0) {
+          findLightest();
+        }
+        String candidate = lightest[--lightestLeft];
+        lightest[lightestLeft] = null;
+        // Counts only grow, so one still at the smallest count is still a lightest context
+        if (contextDictionary.getInt(candidate) == lightestCount) {
+          victim = candidate;
+        }
+      }
+      removeCount(victim);
+      putCount(contextWord, (int) Math.min(Integer.MAX_VALUE, (long) lightestCount + weight));
+      if (overestimates == null) {
+        overestimates = new Object2IntOpenHashMap<>();
+        rowBytes += MemoryBudget.openHashBytes(0, MemoryBudget.REF, 4);
+      }
+      rowBytes -= MemoryBudget.openHashBytes(overestimates.size(), MemoryBudget.REF, 4);
+      overestimates.removeInt(victim);
+      overestimates.put(contextWord, lightestCount);
+      rowBytes += MemoryBudget.openHashBytes(overestimates.size(), MemoryBudget.REF, 4);
+      contextsReplaced++;
+    }
+
+    private Object2IntMap<String> readOverestimates() {
+      int n = rowSpill.read(overestimateOffset, spillIndices, spillCounts);
+      Object2IntMap<String> read = new Object2IntOpenHashMap<>(n);
+      for (int i = 0; i < n; i++) {
+        read.put(contextKey(spillIndices[i]), spillCounts[i]);
+      }
+      return read;
+    }
+
+    /**
+     * Takes the inherited part off the counts of the contexts that replaced another, leaving the
+     * count seen since they got in, which never overestimates. Without hashing that part goes to
+     * unk, so the row keeps its mass, with hashing it is dropped as no bin can take it.
+     * @param keys The contexts, with room for one more
+     * @param counts Their stored counts, with room for one more
+     * @param n The number of contexts
+     * @param errors The overestimates of the contexts
+     * @return The number of contexts left, those with nothing left being removed
+     */
+    private int debias(String[] keys, int[] counts, int n, Object2IntMap<String> errors) {
+      long pruned = 0;
+      int unk = -1;
+      int kept = 0;
+      for (int i = 0; i < n; i++) {
+        // A Morris counter may have rounded the count below what it inherited
+        int count = counts[i] - Math.min(errors.getInt(keys[i]), counts[i]);
+        pruned += counts[i] - count;
+        if (count > 0) {
+          if (keys[i].equals("unk")) {
+            unk = kept;
+          }
+          keys[kept] = keys[i];
+          counts[kept++] = count;
+        }
+      }
+      if (!isHashing && pruned > 0) {
+        if (unk < 0) {
+          unk = kept;
+          keys[kept] = "unk";
+          counts[kept++] = 0;
+        }
+        counts[unk] = (int) Math.min(Integer.MAX_VALUE, counts[unk] + pruned);
+      }
+      return kept;
+    }
+
+    /**
+     * @return The contexts and counts of the row as they are emitted, without the inherited part
+     * of the counts
+     */
+    int emittedCounts(String[] keys, int[] counts) {
+      int n = 0;
+      for (Object2IntMap.Entry<String> e : contextDictionary.object2IntEntrySet()) {
+        keys[n] = e.getKey();
+        counts[n++] = e.getIntValue();
+      }
+      return (overestimates == null) ? n : debias(keys, counts, n, overestimates);
+    }
+
+    /**
+     * Forgets the lightest contexts along with the dictionary they point into, the next
+     * replacement scans the row again.
+     */
+    void dropLightest() {
+      lightest = null;
+      lightestLeft = 0;
+      lightestCount = 0;
+    }
+
+    private void findLightest() {
+      if (lightest == null || lightest.length < contextDictionary.size()) {
+        rowBytes -= lightestBytes();
+        lightest = new String[contextDictionary.size()];
+        rowBytes += lightestBytes();
+      }
+      int min = Integer.MAX_VALUE;
+      int n = 0;
+      for (Object2IntMap.Entry<String> e : contextDictionary.object2IntEntrySet()) {
+        if (!isHashing && e.getKey().equals("unk")) {
+          continue;
+        }
+        int c = e.getIntValue();
+        if (c < min) {
+          min = c;
+          n = 0;
+        }
+        if (c == min) {
+          lightest[n++] = e.getKey();
+        }
+      }
+      lightestCount = min;
+      lightestLeft = n;
+    }
+
+    /**
+     * Sets the count of a context word and keeps the norm and the SimHash accumulators in step.
+     * @param contextWord The context word
+     * @param count Its new count
+     */
+    private void putCount(String contextWord, int count) {
+      if (counterRounding != null) {
+        count = MorrisCountMap.round(count, counterRounding);
+      }
+      markDirty();
+      dropSpilledCopy();
+      int old = contextDictionary.put(contextWord, count);
+      if (old == 0) {
+        int size = contextDictionary.size();
+        rowBytes += MemoryBudget.openHashBytes(size, MemoryBudget.REF, countBytes())
+            - MemoryBudget.openHashBytes(size - 1, MemoryBudget.REF, countBytes());
+      }
+      squaredNorm += (long) count * count - (long) old * old;
+      if (projection != null) {
+        similarityIndex.accumulate(projection, contextWord, count - old);
+      }
+    }
+
+    /**
+     * Removes a context word and keeps the norm and the SimHash accumulators in step.
+     * @param contextWord The context word, present in the row
+     */
+    private void removeCount(String contextWord) {
+      markDirty();
+      dropSpilledCopy();
+      int old = contextDictionary.removeInt(contextWord);
+      int size = contextDictionary.size();
+      rowBytes += MemoryBudget.openHashBytes(size, MemoryBudget.REF, countBytes())
+          - MemoryBudget.openHashBytes(size + 1, MemoryBudget.REF, countBytes());
+      squaredNorm -= (long) old * old;
+      if (projection != null) {
+        similarityIndex.accumulate(projection, contextWord, -old);
+      }
+    }
+
+    private void dropSpilledCopy() {
+      if (spillOffset >= 0) {
+        rowSpill.free(spillOffset);
+        spillOffset = -1;
+      }
+      if (overestimateOffset >= 0) {
+        rowSpill.free(overestimateOffset);
+        overestimateOffset = -1;
+      }
+    }
+
+    /**
+     * @return The bytes held by the row's word, the WordRep itself and its SimHash accumulators
+     */
+    long wordBytes() {
+      // Header, seven references (word, map, isFull, projection, lightest, overestimates, the
+      // matrix), six ints, three longs and two booleans
+      long bytes = MemoryBudget.align(MemoryBudget.OBJECT_HEADER + 7 * MemoryBudget.REF + 6 * 4 + 3 * 8 + 2)
+          + MemoryBudget.stringBytes(word);
+      if (projection != null) {
+        bytes += MemoryBudget.align(MemoryBudget.ARRAY_HEADER + 4L * projection.length);
+      }
+      return bytes;
+    }
+
+    /**
+     * @return The bytes held by the context dictionary, its keys being shared
+     */
+    long rowBytes() {
+      if (contextDictionary == null) {
+        return 0; // Spilled
+      }
+      long bytes = MemoryBudget.openHashBytes(contextDictionary.size(), MemoryBudget.REF, countBytes());
+      if (counterRounding != null) {
+        // The wrapper
+        bytes += MemoryBudget.align(MemoryBudget.OBJECT_HEADER + MemoryBudget.REF);
+      }
+      if (overestimates != null) {
+        bytes += MemoryBudget.openHashBytes(overestimates.size(), MemoryBudget.REF, 4);
+      }
+      return bytes + lightestBytes();
+    }
+
+    private long lightestBytes() {
+      return (lightest == null) ? 0 : MemoryBudget.align(MemoryBudget.ARRAY_HEADER + (long) MemoryBudget.REF * lightest.length);
+    }
+
+    private int countBytes() {
+      return (counterRounding != null) ? 1 : 4;
+    }
+
+    private void markDirty() {
+      if (!dirty && trackChanges) {
+        dirty = true;
+        if (dirtyRows.size() >= 2 * vocabulary.size() + 1024) {
+          compactDirtyRows(); // Evictions between two snapshots are piling up
+        }
+        dirtyRows.add(this);
+      }
+    }
+
+    /**
+     * @return An immutable copy of the row
+     */
+    MatrixSnapshot.RowSnapshot freeze() {
+      if (contextDictionary == null) {
+        // Cold, copied straight from the spill without making it hot again
+        Object2IntMap<String> errors = (overestimateOffset >= 0) ? readOverestimates() : null;
+        int n = rowSpill.read(spillOffset, spillIndices, spillCounts);
+        String[] keys = new String[n + 1];
+        int[] counts = Arrays.copyOf(spillCounts, n + 1);
+        for (int i = 0; i < n; i++) {
+          keys[i] = contextKey(spillIndices[i]);
+        }
+        if (errors != null) {
+          n = debias(keys, counts, n, errors);
+        }
+        return frozen(keys, counts, n, errors != null);
+      }
+      String[] keys = new String[contextDictionary.size() + 1];
+      int[] counts = new int[keys.length];
+      int n = emittedCounts(keys, counts);
+      return frozen(keys, counts, n, overestimates != null);
+    }
+
+    private MatrixSnapshot.RowSnapshot frozen(String[] keys, int[] counts, int n, boolean debiased) {
+      long norm = squaredNorm;
+      if (debiased) {
+        norm = 0;
+        for (int i = 0; i < n; i++) {
+          norm += (long) counts[i] * counts[i];
+        }
       }
+      long sig = (projection != null) ? similarityIndex.signature(projection) : 0L;
+      return new MatrixSnapshot.RowSnapshot(word, Arrays.copyOf(keys, n), Arrays.copyOf(counts, n),
+          numTweets, norm, sig);
     }
   }
 
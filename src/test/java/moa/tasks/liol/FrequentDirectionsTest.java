@@ -0,0 +1,61 @@
+package moa.tasks.liol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the change of basis that carries the classifier's weights over a refresh.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class FrequentDirectionsTest {
+
+  private static double[] project(FrequentDirections.Basis b, double[] x) {
+    int[] idx = new int[x.length];
+    for (int i = 0; i < x.length; i++) {
+      idx[i] = i;
+    }
+    double[] out = new double[b.size()];
+    b.project(idx, x, x.length, out);
+    return out;
+  }
+
+  @Test
+  public void transitionKeepsTheScoresOfRowsInBothSpans() {
+    double s = Math.sqrt(0.5);
+    // The same plane of R^4, the new basis rotated by 45 degrees and with a flipped sign
+    FrequentDirections.Basis old = new FrequentDirections.Basis(new double[][]{
+        {1, 0, 0, 0}, {0, 1, 0, 0}});
+    FrequentDirections.Basis next = new FrequentDirections.Basis(new double[][]{
+        {s, s, 0, 0}, {s, -s, 0, 0}});
+    double[][] M = next.transition(old);
+
+    double[] w = {0.3, -1.2};
+    double[] mapped = new double[2];
+    for (int j = 0; j < 2; j++) {
+      for (int k = 0; k < 2; k++) {
+        mapped[j] += M[j][k] * w[k];
+      }
+    }
+    double[] x = {2, 5, 0, 0};
+    double[] before = project(old, x);
+    double[] after = project(next, x);
+    assertEquals(w[0] * before[0] + w[1] * before[1], mapped[0] * after[0] + mapped[1] * after[1], 1e-12);
+  }
+
+  @Test
+  public void transitionDropsDirectionsTheNewBasisLeavesOut() {
+    FrequentDirections.Basis old = new FrequentDirections.Basis(new double[][]{
+        {1, 0, 0}, {0, 0, 1}});
+    FrequentDirections.Basis next = new FrequentDirections.Basis(new double[][]{
+        {0, 1, 0}, {1, 0, 0}});
+    double[][] M = next.transition(old);
+    // Only the first old direction survives, as the second new one
+    assertEquals(0, M[0][0], 0);
+    assertEquals(0, M[0][1], 0);
+    assertEquals(1, M[1][0], 0);
+    assertEquals(0, M[1][1], 0);
+  }
+}
@@ -0,0 +1,150 @@
+package moa.tasks.liol;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes snapshots as shards and reads them back.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class MatrixShardTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Builds a snapshot from rows given as word, tweet count, then context and count pairs.
+   */
+  static MatrixSnapshot snapshot(String[] contextWords, long[] binCounts, long tokensSeen,
+                                 long processedInstances, int contextSize, Object[]... rows) {
+    Object2ObjectOpenHashMap<String, MatrixSnapshot.RowSnapshot>[] chunks = MatrixSnapshot.emptyChunks(4);
+    for (Object[] row : rows) {
+      String word = (String) row[0];
+      int n = (row.length - 2) / 2;
+      String[] keys = new String[n];
+      int[] counts = new int[n];
+      long norm = 0;
+      for (int i = 0; i < n; i++) {
+        keys[i] = (String) row[2 + 2 * i];
+        counts[i] = (Integer) row[3 + 2 * i];
+        norm += (long) counts[i] * counts[i];
+      }
+      chunks[MatrixSnapshot.chunkOf(word, chunks.length)].put(word,
+          new MatrixSnapshot.RowSnapshot(word, keys, counts, (Integer) row[1], norm));
+    }
+    Object2IntOpenHashMap<String> indices = new Object2IntOpenHashMap<>();
+    if (contextWords != null) {
+      for (int i = 0; i < contextWords.length; i++) {
+        indices.put(contextWords[i], i);
+      }
+    }
+    return new MatrixSnapshot(chunks, indices, binCounts, tokensSeen, processedInstances, contextSize,
+        true, binCounts != null);
+  }
+
+  @Test
+  public void roundTripsRowsInWordAndContextOrder() throws IOException {
+    MatrixSnapshot s = snapshot(new String[]{"unk", "the", "good", "day"}, null, 42, 7, 4,
+        new Object[]{"the", 1, "good", 3, "day", 2, "unk", 1},
+        new Object[]{"good", 1, "the", 3},
+        new Object[]{"day", 1, "the", 2, "good", 1});
+    File file = folder.newFile("a.shard");
+    MatrixShard.write(s, file);
+
+    try (MatrixShard.Reader reader = new MatrixShard.Reader(file)) {
+      MatrixShard.Header h = reader.getHeader();
+      assertEquals(4, h.getContextSize());
+      assertFalse(h.isHashing());
+      assertEquals(42, h.getTokensSeen());
+      assertEquals(7, h.getProcessedInstances());
+      assertArrayEquals(new String[]{"unk", "the", "good", "day"}, h.contextWords);
+
+      MatrixShard.Row day = reader.next();
+      assertEquals("day", day.getWord());
+      assertArrayEquals(new String[]{"good", "the"}, day.keys);
+      assertArrayEquals(new int[]{1, 2}, day.counts);
+      MatrixShard.Row good = reader.next();
+      assertEquals("good", good.getWord());
+      assertArrayEquals(new String[]{"the"}, good.keys);
+      assertArrayEquals(new int[]{3}, good.counts);
+      MatrixShard.Row the = reader.next();
+      assertEquals("the", the.getWord());
+      assertEquals(1, the.numTweets);
+      assertArrayEquals(new String[]{"day", "good", "unk"}, the.keys);
+      assertArrayEquals(new int[]{2, 3, 1}, the.counts);
+      assertNull(reader.next());
+    }
+    assertFalse("The temporary file is moved into place", MatrixShard.temporaryFor(file).exists());
+  }
+
+  @Test
+  public void keepsMarginalsBeyondTheIntRange() throws IOException {
+    long tokens = 3L * Integer.MAX_VALUE;
+    long lines = Integer.MAX_VALUE + 10L;
+    long[] bins = {Integer.MAX_VALUE + 1L, 5, 0};
+    MatrixSnapshot s = snapshot(null, bins, tokens, lines, 3, new Object[]{"w", 1, "contextbin0", 9});
+    File file = folder.newFile("big.shard");
+    MatrixShard.write(s, file);
+
+    try (MatrixShard.Reader reader = new MatrixShard.Reader(file)) {
+      MatrixShard.Header h = reader.getHeader();
+      assertTrue(h.isHashing());
+      assertEquals(tokens, h.getTokensSeen());
+      assertEquals(lines, h.getProcessedInstances());
+      assertArrayEquals(bins, h.binCounts);
+      assertEquals("w", reader.next().getWord());
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void roundTripsAnEmptyMatrix() throws IOException {
+    File file = folder.newFile("empty.shard");
+    MatrixShard.write(snapshot(new String[0], null, 0, 0, 10), file);
+    try (MatrixShard.Reader reader = new MatrixShard.Reader(file)) {
+      assertEquals(0, reader.getHeader().contextWords.length);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void writerRejectsRowsOutOfOrder() throws IOException {
+    MatrixShard.Header h = new MatrixShard.Header(2, false, false, 0, 0, null, new String[0]);
+    try (MatrixShard.Writer writer = new MatrixShard.Writer(folder.newFile("order.shard"), h)) {
+      writer.write("b", 1, new String[0], new int[0], 0);
+      try {
+        writer.write("a", 1, new String[0], new int[0], 0);
+        fail("Rows out of order were written");
+      } catch (IOException expected) {
+        // Expected
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void readerRejectsOtherFiles() throws IOException {
+    File file = folder.newFile("other.gz");
+    try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+      out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+    }
+    new MatrixShard.Reader(file).close();
+  }
+}
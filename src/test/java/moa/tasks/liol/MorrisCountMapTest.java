@@ -0,0 +1,143 @@
+package moa.tasks.liol;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the code table, the rounding and that the map behaves as an Object2IntMap.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class MorrisCountMapTest {
+
+  @Test
+  public void valuesAreStrictlyIncreasingAndExactUpToExact() {
+    int[] values = MorrisCountMap.VALUES;
+    for (int c = 0; c <= MorrisCountMap.EXACT; c++) {
+      assertEquals(c, values[c]);
+    }
+    for (int c = 1; c < values.length; c++) {
+      assertTrue("code " + c, values[c] > values[c - 1]);
+    }
+    assertEquals(Integer.MAX_VALUE, values[values.length - 1]);
+  }
+
+  @Test
+  public void roundKeepsSmallCountsAndRepresentableValues() {
+    Random random = new Random(1);
+    for (int count = 0; count <= MorrisCountMap.EXACT; count++) {
+      assertEquals(count, MorrisCountMap.round(count, random));
+    }
+    for (int v : MorrisCountMap.VALUES) {
+      assertEquals(v, MorrisCountMap.round(v, random));
+    }
+  }
+
+  @Test
+  public void roundIsUnbiased() {
+    Random random = new Random(42);
+    int samples = 200000;
+    for (int count : new int[]{65, 100, 1000, 12345, 1000000, 300000000}) {
+      long sum = 0;
+      for (int i = 0; i < samples; i++) {
+        sum += MorrisCountMap.round(count, random);
+      }
+      // The standard error of the mean is below 0.05 * count / sqrt(samples) = 1.1e-4 * count
+      assertEquals("count " + count, count, (double) sum / samples, 5e-4 * count);
+    }
+  }
+
+  @Test
+  public void roundsToANeighbouringValue() {
+    Random random = new Random(7);
+    int[] values = MorrisCountMap.VALUES;
+    for (int c = MorrisCountMap.EXACT + 1; c < values.length; c++) {
+      int count = values[c - 1] + (values[c] - values[c - 1]) / 2;
+      int rounded = MorrisCountMap.round(count, random);
+      assertTrue("count " + count, rounded == values[c - 1] || rounded == values[c]);
+    }
+  }
+
+  @Test
+  public void absentKeysReadAsZero() {
+    MorrisCountMap map = new MorrisCountMap();
+    assertEquals(0, map.getInt("a"));
+    assertEquals(0, map.removeInt("a"));
+    assertFalse(map.containsKey("a"));
+    assertEquals(0, map.put("a", 3));
+    assertEquals(3, map.getInt("a"));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void putRoundsDownAndReturnsThePreviousValue() {
+    MorrisCountMap map = new MorrisCountMap();
+    int above = MorrisCountMap.VALUES[MorrisCountMap.EXACT + 10];
+    map.put("a", 7);
+    assertEquals(7, map.put("a", above + 1));
+    assertEquals(above, map.getInt("a"));
+    assertEquals(above, map.removeInt("a"));
+    assertFalse(map.containsKey("a"));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void iteratesOverWhatIsLeftAfterRemovals() {
+    MorrisCountMap map = new MorrisCountMap(4);
+    Map<String, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      map.put("w" + i, i % MorrisCountMap.EXACT); // Exact, so the values can be compared
+      expected.put("w" + i, i % MorrisCountMap.EXACT);
+    }
+    for (int i = 0; i < 100; i += 3) {
+      assertEquals(i % MorrisCountMap.EXACT, map.removeInt("w" + i));
+      expected.remove("w" + i);
+    }
+    // Through the iterator too
+    ObjectIterator<Object2IntMap.Entry<String>> it = map.object2IntEntrySet().iterator();
+    while (it.hasNext()) {
+      Object2IntMap.Entry<String> e = it.next();
+      if (e.getIntValue() % 3 == 1) {
+        it.remove();
+        expected.remove(e.getKey());
+      }
+    }
+
+    assertEquals(expected.size(), map.size());
+    Map<String, Integer> actual = new HashMap<>();
+    ObjectIterator<Object2IntMap.Entry<String>> fast =
+        ((Object2IntMap.FastEntrySet<String>) map.object2IntEntrySet()).fastIterator();
+    while (fast.hasNext()) {
+      Object2IntMap.Entry<String> e = fast.next();
+      actual.put(e.getKey(), e.getIntValue());
+    }
+    assertEquals(expected, actual);
+    assertEquals(expected.keySet(), map.keySet());
+  }
+
+  @Test
+  public void settingAnEntryStoresItsValue() {
+    MorrisCountMap map = new MorrisCountMap();
+    map.put("a", 5);
+    map.put("b", 9);
+    int above = MorrisCountMap.VALUES[MorrisCountMap.EXACT + 20];
+    for (Object2IntMap.Entry<String> e : map.object2IntEntrySet()) {
+      if (e.getKey().equals("a")) {
+        assertEquals(5, e.setValue(above + 1));
+        assertEquals(above, e.getIntValue());
+      }
+    }
+    assertEquals(above, map.getInt("a"));
+    assertEquals(9, map.getInt("b"));
+  }
+}
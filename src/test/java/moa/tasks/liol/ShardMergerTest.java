@@ -0,0 +1,116 @@
+package moa.tasks.liol;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static moa.tasks.liol.MatrixShardTest.snapshot;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Merges small shards and checks the merged rows and marginals.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class ShardMergerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File write(String name, MatrixSnapshot s) throws IOException {
+    File file = folder.newFile(name);
+    MatrixShard.write(s, file);
+    return file;
+  }
+
+  private static List<MatrixShard.Row> rows(MatrixShard.Reader reader) throws IOException {
+    List<MatrixShard.Row> rows = new ArrayList<>();
+    for (MatrixShard.Row r = reader.next(); r != null; r = reader.next()) {
+      rows.add(r);
+    }
+    return rows;
+  }
+
+  @Test
+  public void mergesRowsOfEveryShardInWordOrder() throws IOException {
+    File a = write("a.shard", snapshot(new String[]{"unk", "x", "y"}, null, 100, 10, 4,
+        new Object[]{"b", 1, "x", 2, "y", 1},
+        new Object[]{"d", 1, "x", 1}));
+    File b = write("b.shard", snapshot(new String[]{"unk", "z", "x"}, null, 50, 5, 4,
+        new Object[]{"a", 1, "z", 4},
+        new Object[]{"b", 1, "x", 3, "z", 1}));
+    File c = write("c.shard", snapshot(new String[]{"unk", "w", "v"}, null, 7, 1, 4,
+        new Object[]{"b", 1, "w", 5, "v", 2},
+        new Object[]{"c", 1, "unk", 1}));
+    File merged = new File(folder.getRoot(), "merged.shard");
+    ShardMerger.merge(new File[]{a, b, c}, merged);
+
+    try (MatrixShard.Reader reader = new MatrixShard.Reader(merged)) {
+      MatrixShard.Header h = reader.getHeader();
+      assertEquals(157, h.getTokensSeen());
+      assertEquals(16, h.getProcessedInstances());
+      // First come, first indexed, up to the context size: v no longer fits
+      assertArrayEquals(new String[]{"unk", "x", "y", "z"}, h.contextWords);
+
+      List<MatrixShard.Row> rows = rows(reader);
+      assertEquals(4, rows.size());
+      assertEquals("a", rows.get(0).getWord());
+      assertArrayEquals(new String[]{"z"}, rows.get(0).keys);
+      assertArrayEquals(new int[]{4}, rows.get(0).counts);
+
+      MatrixShard.Row row = rows.get(1);
+      assertEquals("b", row.getWord());
+      assertEquals(1, row.numTweets);
+      // w and v are outside the merged index and counted as unk
+      assertArrayEquals(new String[]{"unk", "x", "y", "z"}, row.keys);
+      assertArrayEquals(new int[]{7, 5, 1, 1}, row.counts);
+
+      assertEquals("c", rows.get(2).getWord());
+      assertArrayEquals(new int[]{1}, rows.get(2).counts);
+      assertEquals("d", rows.get(3).getWord());
+    }
+  }
+
+  @Test
+  public void sumsBinCountsBeyondTheIntRange() throws IOException {
+    long big = Integer.MAX_VALUE;
+    File a = write("a.shard", snapshot(null, new long[]{big, 1}, 2 * big, big, 2,
+        new Object[]{"w", 1, "contextbin0", Integer.MAX_VALUE - 1}));
+    File b = write("b.shard", snapshot(null, new long[]{big, 2}, 2 * big, big, 2,
+        new Object[]{"w", 1, "contextbin0", 5, "contextbin1", 2}));
+    File merged = new File(folder.getRoot(), "merged.shard");
+    ShardMerger.merge(new File[]{a, b}, merged);
+
+    try (MatrixShard.Reader reader = new MatrixShard.Reader(merged)) {
+      MatrixShard.Header h = reader.getHeader();
+      assertEquals(4 * big, h.getTokensSeen());
+      assertEquals(2 * big, h.getProcessedInstances());
+      assertArrayEquals(new long[]{2 * big, 3}, h.binCounts);
+      MatrixShard.Row w = reader.next();
+      // A row count saturates instead of wrapping around
+      assertArrayEquals(new int[]{Integer.MAX_VALUE, 2}, w.counts);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void rejectsShardsOfDifferentSketches() throws IOException {
+    File a = write("a.shard", snapshot(new String[]{"unk"}, null, 1, 1, 2, new Object[]{"w", 1, "unk", 1}));
+    File b = write("b.shard", snapshot(null, new long[]{1, 1}, 1, 1, 2, new Object[]{"w", 1, "contextbin0", 1}));
+    try {
+      ShardMerger.merge(new File[]{a, b}, new File(folder.getRoot(), "merged.shard"));
+      fail("Shards with and without hashing were merged");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package moa.tasks.liol;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds small matrices from a generated stream and checks the rows.
+ *
+ * @version 1.0
+ * @since 2026-10-18
+ */
+public class WordContextMatrixTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File write(String name, String... lines) throws IOException {
+    File file = folder.newFile(name);
+    try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+      for (String line : lines) {
+        out.println(line);
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Lines of words drawn with a skewed distribution, so rows have both heavy and rare contexts.
+   */
+  private File corpus(int numLines, long seed) throws IOException {
+    Random random = new Random(seed);
+    String[] lines = new String[numLines];
+    for (int i = 0; i < numLines; i++) {
+      StringBuilder line = new StringBuilder();
+      int length = 4 + random.nextInt(8);
+      for (int j = 0; j < length; j++) {
+        double u = random.nextDouble();
+        line.append(j == 0 ? "" : " ").append('w').append((int) (u * u * 200));
+      }
+      lines[i] = line.toString();
+    }
+    return write("corpus.txt", lines);
+  }
+
+  private WordContextMatrix matrix(File corpus) throws IOException {
+    Trainer trainer = new Trainer(0, null, null);
+    trainer.initialize(new InputObject(write("train-" + folder.getRoot().list().length + ".txt",
+        "w1\t1", "w2\t-1").getPath()),
+        new InputObject(write("test-" + folder.getRoot().list().length + ".txt",
+        "w3\t1", "w4\t-1").getPath()));
+    return new WordContextMatrix(1000, 1000, 3, new InputObject(corpus.getPath()), trainer);
+  }
+
+  @Test
+  public void rowLimitSurvivesSpillAndReadBack() throws IOException {
+    File corpus = corpus(2000, 7);
+
+    WordContextMatrix inMemory = matrix(corpus);
+    inMemory.setRowLimit(5);
+    inMemory.buildMatrix();
+    MatrixSnapshot expected = inMemory.snapshot();
+
+    // Two hot rows, so nearly every row is spilled and read back between two of its updates
+    WordContextMatrix spilled = matrix(corpus);
+    spilled.setRowLimit(5);
+    spilled.enableRowSpill(2, folder.newFolder("spill"));
+    spilled.buildMatrix();
+    MatrixSnapshot actual = spilled.snapshot();
+
+    assertTrue(spilled.memoryUsage().containsKey("rows"));
+    assertEquals(expected.size(), actual.size());
+    for (String word : expected.words()) {
+      MatrixSnapshot.RowSnapshot e = expected.getRow(word);
+      MatrixSnapshot.RowSnapshot a = actual.getRow(word);
+      assertNotNull(word, a);
+      assertEquals(word, e.numTweets, a.numTweets);
+      // Which of the tied lightest contexts goes depends on the dictionary's order, the mass does not
+      assertEquals(word, mass(e), mass(a));
+      int limited = 0;
+      for (String key : a.keys) {
+        if (!key.equals("unk")) {
+          limited++;
+        }
+      }
+      assertTrue(word + " has " + limited + " contexts", limited <= 5);
+    }
+  }
+
+  /**
+   * Twenty contexts seen once each fill a row of two, then one context comes late and often.
+   */
+  private File lateContext() throws IOException {
+    String[] lines = new String[30];
+    for (int i = 0; i < 20; i++) {
+      lines[i] = "a c" + i;
+    }
+    for (int i = 20; i < 30; i++) {
+      lines[i] = "a z";
+    }
+    return write("late.txt", lines);
+  }
+
+  private MatrixSnapshot.RowSnapshot build(File corpus, int rowLimit) throws IOException {
+    WordContextMatrix m = matrix(corpus);
+    m.setRowLimit(rowLimit);
+    m.buildMatrix();
+    return m.snapshot().getRow("a");
+  }
+
+  private static int count(MatrixSnapshot.RowSnapshot row, String context) {
+    for (int i = 0; i < row.keys.length; i++) {
+      if (row.keys[i].equals(context)) {
+        return row.counts[i];
+      }
+    }
+    return 0;
+  }
+
+  @Test
+  public void lateContextIsCountedFromWhenItGotIn() throws IOException {
+    File corpus = lateContext();
+    MatrixSnapshot.RowSnapshot exact = build(corpus, 0);
+    MatrixSnapshot.RowSnapshot limited = build(corpus, 2);
+
+    assertEquals(10, count(exact, "z"));
+    // Stored, z carries the count of the context it replaced, emitted it has its own
+    assertEquals(10, count(limited, "z"));
+    for (int i = 0; i < limited.keys.length; i++) {
+      if (limited.keys[i].startsWith("c")) {
+        assertEquals(limited.keys[i], 1, limited.counts[i]);
+      }
+    }
+  }
+
+  @Test
+  public void rowKeepsItsMassInUnk() throws IOException {
+    File corpus = lateContext();
+    MatrixSnapshot.RowSnapshot exact = build(corpus, 0);
+    MatrixSnapshot.RowSnapshot limited = build(corpus, 2);
+
+    assertEquals(30, mass(exact));
+    assertEquals(0, count(exact, "unk"));
+    assertEquals(30, mass(limited));
+    // z and one of the c, each with its own count, what the others were counted with is in unk
+    assertEquals(3, limited.keys.length);
+    assertEquals(30 - 10 - 1, count(limited, "unk"));
+    long norm = 0;
+    for (int c : limited.counts) {
+      norm += (long) c * c;
+    }
+    assertEquals(norm, limited.getSquaredNorm());
+  }
+
+  /**
+   * Lines about one of ten topics, each with its own words, mixed with words shared by all.
+   */
+  private File topics(int numLines, long seed) throws IOException {
+    Random random = new Random(seed);
+    String[] lines = new String[numLines];
+    for (int i = 0; i < numLines; i++) {
+      int topic = random.nextInt(10);
+      StringBuilder line = new StringBuilder("s" + random.nextInt(20));
+      for (int j = 0; j < 8; j++) {
+        line.append(' ').append(random.nextInt(4) == 0 ? "s" + random.nextInt(20)
+            : "t" + topic + "w" + random.nextInt(15));
+      }
+      lines[i] = line.toString();
+    }
+    return write("topics.txt", lines);
+  }
+
+  private MatrixSnapshot topicSnapshot(int numTables, int bitsPerTable) throws IOException {
+    WordContextMatrix m = matrix(topics(3000, 11));
+    if (numTables > 0) {
+      m.enableSimilarityIndex(numTables, bitsPerTable, 1L);
+    }
+    m.buildMatrix();
+    return m.snapshot();
+  }
+
+  private static double cosine(MatrixSnapshot.RowSnapshot a, MatrixSnapshot.RowSnapshot b) {
+    long dot = 0;
+    for (int i = 0; i < a.keys.length; i++) {
+      dot += (long) a.counts[i] * count(b, a.keys[i]);
+    }
+    return dot / Math.sqrt((double) a.getSquaredNorm() * b.getSquaredNorm());
+  }
+
+  @Test
+  public void neighboursWithoutIndexAreTheBruteForceOnes() throws IOException {
+    MatrixSnapshot snapshot = topicSnapshot(0, 0);
+    MatrixSnapshot.RowSnapshot query = snapshot.getRow("t3w0");
+    List<Neighbour> neighbours = snapshot.nearestNeighbours("t3w0", 5);
+    assertEquals(5, neighbours.size());
+
+    // The fifth best similarity of a scan of every row
+    List<Double> similarities = new ArrayList<>();
+    for (String word : snapshot.words()) {
+      if (!word.equals("t3w0") && !word.equals("unk")) {
+        similarities.add(cosine(query, snapshot.getRow(word)));
+      }
+    }
+    Collections.sort(similarities, Collections.reverseOrder());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(similarities.get(i), neighbours.get(i).getSimilarity(), 1e-9);
+      assertTrue(neighbours.get(i).getWord().startsWith("t3"));
+    }
+    assertTrue(snapshot.nearestNeighbours("nope", 5).isEmpty());
+  }
+
+  @Test
+  public void indexRecallsTheBruteForceNeighbours() throws IOException {
+    MatrixSnapshot snapshot = topicSnapshot(8, 8);
+    int found = 0;
+    int wanted = 0;
+    for (int topic = 0; topic < 10; topic++) {
+      for (int w = 0; w < 15; w++) {
+        String word = "t" + topic + "w" + w;
+        Set<String> exact = new HashSet<>();
+        for (Neighbour n : snapshot.nearestNeighbours(word, 10, false)) {
+          exact.add(n.getWord());
+        }
+        for (Neighbour n : snapshot.nearestNeighbours(word, 10)) {
+          if (exact.contains(n.getWord())) {
+            found++;
+          }
+        }
+        wanted += exact.size();
+      }
+    }
+    assertTrue("recall " + found + " of " + wanted, found >= 0.9 * wanted);
+  }
+
+  private static long mass(MatrixSnapshot.RowSnapshot row) {
+    long mass = 0;
+    for (int count : row.counts) {
+      mass += count;
+    }
+    return mass;
+  }
+}